@@ -0,0 +1,70 @@
+package com.evancarey.game;
+
+import com.evancarey.game.gfx.Renderer;
+import com.evancarey.game.gfx.SpriteBatch;
+import com.evancarey.game.gui.GuiLayer;
+import com.evancarey.game.level.Level;
+import com.evancarey.game.level.TileChunkCache;
+
+/**
+ * Draws frames from snapshots (see FrameSnapshot).
+ * The drawer keeps what is drawn ahead of the frames, the level's
+ * pre-rendered tile chunks and the pre-rendered GUI, so it belongs to the
+ * thread that draws: the game's thread, or the render thread when the game
+ * is pipelined. Nothing it draws from is changed by the game's ticks.
+ */
+public class FrameDrawer {
+	
+	/** The color of the sky behind the level */
+	private static final int SKY = 0x9bcefd;
+	
+	/** Collects each frame's draw calls so they are drawn in layer order */
+	private SpriteBatch batch;
+	/** Pre-rendered chunks of the last level drawn (null before the first) */
+	private TileChunkCache chunks;
+	/** The level's tile revision the chunks were baked at */
+	private int tileRevision;
+	private GuiLayer gui;
+	
+	/**
+	 * Construct a drawer with nothing pre-rendered yet.
+	 */
+	public FrameDrawer() {
+		batch = new SpriteBatch();
+		chunks = null;
+		tileRevision = 0;
+		gui = new GuiLayer();
+	}
+	
+	/**
+	 * Draw a frame from a snapshot. The renderer's interpolation sets how
+	 * far between the snapshot's last two ticks the frame is drawn.
+	 * @param snapshot The snapshot, taken for the renderer's size
+	 * @param renderer The renderer to draw with
+	 */
+	public void draw(FrameSnapshot snapshot, Renderer renderer) {
+		batch.begin(renderer);
+		if (snapshot.isSkyVisible()) {
+			renderer.clearScreen(SKY);
+			Level level = snapshot.getLevel();
+			if (level != null) {
+				if (chunks == null || chunks.getLevel() != level) {
+					chunks = new TileChunkCache(level);
+					tileRevision = snapshot.getTileRevision();
+				} else if (snapshot.getTileRevision() != tileRevision) {
+					chunks.clear();
+					tileRevision = snapshot.getTileRevision();
+				}
+				double t = renderer.getInterpolation();
+				int cameraX = snapshot.getCameraX(t);
+				int cameraY = snapshot.getCameraY(t);
+				chunks.draw(batch, -cameraX, -cameraY);
+				snapshot.drawSprites(batch, t, -cameraX, -cameraY);
+			}
+		}
+		if (snapshot.getGui() != null) {
+			gui.draw(batch, snapshot.getGui());
+		}
+		batch.end();
+	}
+}
@@ -0,0 +1,137 @@
+package com.evancarey.game;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules frames at a target rate without keeping a core busy.
+ * Most of the time until the next frame is spent parked; only the last
+ * fraction of a millisecond is spun, because parking can oversleep by about
+ * that much. The pacer also measures how far frames are from the target, so
+ * the jitter can be reported.
+ */
+public class FramePacer {
+	
+	/** Target FPS to render as fast as possible */
+	public static final int UNLIMITED = 0;
+	/** Target FPS to render once per game tick */
+	public static final int MATCH_TICK_RATE = -1;
+	
+	/** Time before a frame that is spun instead of parked */
+	private static final long SPIN_NANOS = 500000L;
+	
+	private int targetFps;
+	/** Nanoseconds per frame (0 when unlimited) */
+	private long frameNanos;
+	/** When the next frame should start */
+	private long nextFrame;
+	
+	// frame time statistics since the last report
+	private long lastFrame;
+	private int frames;
+	private double frameTimeSum;
+	private double frameTimeSquareSum;
+	private long worstError;
+	
+	/**
+	 * Construct a frame pacer.
+	 * @param targetFps The frames per second to aim for, UNLIMITED or MATCH_TICK_RATE
+	 */
+	public FramePacer(int targetFps) {
+		setTargetFps(targetFps);
+		lastFrame = System.nanoTime();
+		nextFrame = lastFrame;
+		resetStats();
+	}
+	
+	/**
+	 * Set the frames per second to aim for.
+	 * @param targetFps The target FPS, UNLIMITED or MATCH_TICK_RATE
+	 */
+	public void setTargetFps(int targetFps) {
+		this.targetFps = targetFps;
+		int fps = targetFps == MATCH_TICK_RATE ? Global.TICK_RATE : targetFps;
+		frameNanos = fps > 0 ? 1000000000L / fps : 0;
+	}
+	
+	/**
+	 * Get the frames per second the pacer aims for.
+	 * @return The target FPS, UNLIMITED or MATCH_TICK_RATE
+	 */
+	public int getTargetFps() {
+		return targetFps;
+	}
+	
+	/**
+	 * Get the time each frame should take.
+	 * @return The frame time in nanoseconds (0 when unlimited)
+	 */
+	public long getFrameNanos() {
+		return frameNanos;
+	}
+	
+	/**
+	 * Wait until the next frame should start. Call once after each frame.
+	 * If a frame ran late, the schedule restarts from now instead of rushing
+	 * out frames to catch up.
+	 */
+	public void waitForFrame() {
+		if (frameNanos > 0) {
+			nextFrame += frameNanos;
+			long now = System.nanoTime();
+			if (now - nextFrame > frameNanos) { // more than a frame behind
+				nextFrame = now;
+			}
+			
+			long remaining = nextFrame - now;
+			while (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+				remaining = nextFrame - System.nanoTime();
+			}
+			while (nextFrame - System.nanoTime() > 0) {
+				Thread.onSpinWait();
+			}
+		}
+		
+		long now = System.nanoTime();
+		long frameTime = now - lastFrame;
+		lastFrame = now;
+		frames++;
+		frameTimeSum += frameTime;
+		frameTimeSquareSum += (double) frameTime * frameTime;
+		if (frameNanos > 0) {
+			worstError = Math.max(worstError, Math.abs(frameTime - frameNanos));
+		}
+	}
+	
+	/**
+	 * Get a summary of the frame times since the last report and start
+	 * measuring again: the mean frame time, its standard deviation (the
+	 * jitter) and, with a target, the worst distance from the target.
+	 * @return The frame time report
+	 */
+	public String report() {
+		String report;
+		if (frames == 0) {
+			report = "no frames";
+		} else {
+			double mean = frameTimeSum / frames;
+			double jitter = Math.sqrt(Math.max(frameTimeSquareSum / frames - mean * mean, 0));
+			report = String.format("frame %.2f ms, jitter %.2f ms", mean / 1e6, jitter / 1e6);
+			if (frameNanos > 0) {
+				report += String.format(", worst %.2f ms off", worstError / 1e6);
+			}
+		}
+		resetStats();
+		return report;
+	}
+	
+	/**
+	 * Clear the frame time statistics.
+	 */
+	private void resetStats() {
+		frames = 0;
+		frameTimeSum = 0;
+		frameTimeSquareSum = 0;
+		worstError = 0;
+	}
+}
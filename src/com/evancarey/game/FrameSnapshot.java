@@ -0,0 +1,325 @@
+package com.evancarey.game;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.evancarey.game.debug.Profiler;
+import com.evancarey.game.gfx.SpriteBatch;
+import com.evancarey.game.gui.GuiComponent;
+import com.evancarey.game.level.Level;
+
+/**
+ * The state a frame is drawn from, taken at the end of a tick: the camera,
+ * the sprites of the entities near the screen and the GUI components,
+ * copied out of the game so the frame can be drawn while the next tick
+ * changes it (see FrameDrawer and Game.runPipelined()). Each sprite keeps
+ * its position at the previous and the current tick, so the frame can be
+ * drawn anywhere between the two. The level's tiles are not copied, as
+ * they only change through Level.setTile(), which is tracked by the
+ * level's tile revision. Snapshots are meant to be reused, so once their
+ * arrays have grown to fit a frame, taking one does not allocate.
+ */
+public class FrameSnapshot {
+	
+	// Kinds of sprite, each followed by its arguments in the data array
+	private static final int SPRITE = 0;	// layer, xOffset, yOffset, texX, texY, texWidth, texHeight
+	private static final int RECT = 1;	// layer, xOffset, yOffset, width, height, color, border
+	/** The ints each sprite takes in the data array */
+	private static final int STRIDE = 8;
+	
+	/** The size of the screen the snapshot is taken for */
+	private int width;
+	private int height;
+	/** The time the snapshot's tick was due, from System.nanoTime() */
+	private long tickTime;
+	
+	/** Whether the sky and the level are drawn (false when a menu covers the screen) */
+	private boolean skyVisible;
+	/** The level whose tiles are drawn (null for none) */
+	private Level level;
+	/** The level's tile revision when the snapshot was taken */
+	private int tileRevision;
+	/** The point the camera is centered on, at the previous and the current tick */
+	private double cameraX0, cameraY0, cameraX1, cameraY1;
+	
+	private int count;
+	private int[] data;
+	/** Each sprite's position at the previous and the current tick (x0, y0, x1, y1) */
+	private double[] positions;
+	
+	/** The visible GUI components, which are never changed (see Gui.capture()) */
+	private List<GuiComponent> gui;
+	/** The phase timings of the thread that took the snapshot, for the profiler overlay */
+	private Profiler profiler;
+	
+	/**
+	 * Construct an empty snapshot.
+	 */
+	public FrameSnapshot() {
+		data = new int[64 * STRIDE];
+		positions = new double[64 * 4];
+		profiler = new Profiler();
+		begin(Global.WIDTH, Global.HEIGHT);
+	}
+	
+	/**
+	 * Clear the snapshot to take a new one.
+	 * @param width The width of the screen the frame is drawn on
+	 * @param height The height of the screen the frame is drawn on
+	 */
+	public void begin(int width, int height) {
+		this.width = width;
+		this.height = height;
+		tickTime = 0;
+		skyVisible = false;
+		level = null;
+		tileRevision = 0;
+		count = 0;
+		gui = null;
+	}
+	
+	/**
+	 * Set the time the snapshot's tick was due, so a frame drawn later can
+	 * tell how far it is towards the next tick.
+	 * @param tickTime The time from System.nanoTime()
+	 */
+	public void setTickTime(long tickTime) {
+		this.tickTime = tickTime;
+	}
+	
+	/**
+	 * Set whether the sky and the level are drawn.
+	 * @param skyVisible False if the GUI covers the whole screen
+	 */
+	public void setSkyVisible(boolean skyVisible) {
+		this.skyVisible = skyVisible;
+	}
+	
+	/**
+	 * Set the level drawn and the point the camera is centered on.
+	 * @param level The level
+	 * @param tileRevision The level's tile revision (see Level.getTileRevision())
+	 * @param cameraX0 The x position of the camera's center at the previous tick
+	 * @param cameraY0 The y position of the camera's center at the previous tick
+	 * @param cameraX1 The x position of the camera's center at the current tick
+	 * @param cameraY1 The y position of the camera's center at the current tick
+	 */
+	public void setLevel(Level level, int tileRevision, double cameraX0, double cameraY0, double cameraX1, double cameraY1) {
+		this.level = level;
+		this.tileRevision = tileRevision;
+		this.cameraX0 = cameraX0;
+		this.cameraY0 = cameraY0;
+		this.cameraX1 = cameraX1;
+		this.cameraY1 = cameraY1;
+	}
+	
+	/**
+	 * Add a sprite from the sprite sheet.
+	 * @param layer The layer to draw the sprite in
+	 * @param x0 The x position of the sprite at the previous tick
+	 * @param y0 The y position of the sprite at the previous tick
+	 * @param x1 The x position of the sprite at the current tick
+	 * @param y1 The y position of the sprite at the current tick
+	 * @param texX The x position of the sprite on the sprite sheet
+	 * @param texY The y position of the sprite on the sprite sheet
+	 * @param texWidth The width of the sprite
+	 * @param texHeight The height of the sprite
+	 */
+	public void addSprite(int layer, double x0, double y0, double x1, double y1, int texX, int texY, int texWidth, int texHeight) {
+		int d = add(x0, y0, x1, y1);
+		data[d] = SPRITE;
+		data[d + 1] = layer;
+		data[d + 2] = 0;
+		data[d + 3] = 0;
+		data[d + 4] = texX;
+		data[d + 5] = texY;
+		data[d + 6] = texWidth;
+		data[d + 7] = texHeight;
+	}
+	
+	/**
+	 * Add a rectangle.
+	 * @param layer The layer to draw the rectangle in
+	 * @param x0 The x position the rectangle moves with, at the previous tick
+	 * @param y0 The y position the rectangle moves with, at the previous tick
+	 * @param x1 The x position the rectangle moves with, at the current tick
+	 * @param y1 The y position the rectangle moves with, at the current tick
+	 * @param xOffset The x position of the rectangle relative to that position
+	 * @param yOffset The y position of the rectangle relative to that position
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param color The color of the rectangle
+	 * @param border Whether the rectangle is filled or an outline
+	 */
+	public void addRect(int layer, double x0, double y0, double x1, double y1, int xOffset, int yOffset,
+			int width, int height, int color, boolean border) {
+		int d = add(x0, y0, x1, y1);
+		data[d] = RECT;
+		data[d + 1] = layer;
+		data[d + 2] = xOffset;
+		data[d + 3] = yOffset;
+		data[d + 4] = width;
+		data[d + 5] = height;
+		data[d + 6] = color;
+		data[d + 7] = border ? 1 : 0;
+	}
+	
+	/**
+	 * Set the GUI components drawn over the frame.
+	 * @param gui The visible components, which must not be changed afterwards
+	 */
+	public void setGui(List<GuiComponent> gui) {
+		this.gui = gui;
+	}
+	
+	/**
+	 * Add the sprites to a batch, between their previous and current
+	 * positions.
+	 * @param batch The batch the sprites are added to
+	 * @param t How far between the last two ticks the frame is (0 to 1)
+	 * @param xOffset The relative x position of the level
+	 * @param yOffset The relative y position of the level
+	 */
+	public void drawSprites(SpriteBatch batch, double t, int xOffset, int yOffset) {
+		for (int i = 0; i < count; i++) {
+			int d = i * STRIDE;
+			int p = i * 4;
+			int x = interpolate(positions[p], positions[p + 2], t) + data[d + 2];
+			int y = interpolate(positions[p + 1], positions[p + 3], t) + data[d + 3];
+			switch (data[d]) {
+			case SPRITE:
+				batch.drawSprite(data[d + 1], x, y, data[d + 4], data[d + 5], data[d + 6], data[d + 7], xOffset, yOffset);
+				break;
+			case RECT:
+				batch.drawRect(data[d + 1], x, y, data[d + 4], data[d + 5], data[d + 6], xOffset, yOffset, data[d + 7] != 0);
+				break;
+			default:
+				throw new IllegalStateException("Unknown snapshot sprite " + data[d]);
+			}
+		}
+	}
+	
+	/**
+	 * Get the x position of the camera.
+	 * @param t How far between the last two ticks the frame is (0 to 1)
+	 * @return The x position of the left of the screen in the level
+	 */
+	public int getCameraX(double t) {
+		return interpolate(cameraX0, cameraX1, t) - width / 2;
+	}
+	
+	/**
+	 * Get the y position of the camera.
+	 * @param t How far between the last two ticks the frame is (0 to 1)
+	 * @return The y position of the top of the screen in the level
+	 */
+	public int getCameraY(double t) {
+		return interpolate(cameraY0, cameraY1, t) - height / 2;
+	}
+	
+	/**
+	 * Get the width of the screen the snapshot was taken for.
+	 * @return The width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Get the height of the screen the snapshot was taken for.
+	 * @return The height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Get the time the snapshot's tick was due.
+	 * @return The time from System.nanoTime()
+	 */
+	public long getTickTime() {
+		return tickTime;
+	}
+	
+	/**
+	 * Check if the sky and the level are drawn.
+	 * @return False if the GUI covers the whole screen
+	 */
+	public boolean isSkyVisible() {
+		return skyVisible;
+	}
+	
+	/**
+	 * Get the level whose tiles are drawn.
+	 * @return The level, or null for none
+	 */
+	public Level getLevel() {
+		return level;
+	}
+	
+	/**
+	 * Get the level's tile revision when the snapshot was taken.
+	 * @return The tile revision
+	 */
+	public int getTileRevision() {
+		return tileRevision;
+	}
+	
+	/**
+	 * Get the GUI components drawn over the frame.
+	 * @return The visible components (null for none)
+	 */
+	public List<GuiComponent> getGui() {
+		return gui;
+	}
+	
+	/**
+	 * Get the phase timings of the thread that took the snapshot. They are
+	 * only copied in when the overlay is drawn (see Game.runPipelined()).
+	 * @return The profiler holding the timings
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
+	
+	/**
+	 * Get the number of sprites and rectangles in the snapshot.
+	 * @return The number of sprites
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Add a sprite's positions, growing the arrays if they are full.
+	 * @param x0 The x position at the previous tick
+	 * @param y0 The y position at the previous tick
+	 * @param x1 The x position at the current tick
+	 * @param y1 The y position at the current tick
+	 * @return The index of the sprite's ints in the data array
+	 */
+	private int add(double x0, double y0, double x1, double y1) {
+		if (count * STRIDE == data.length) {
+			data = Arrays.copyOf(data, count * 2 * STRIDE);
+			positions = Arrays.copyOf(positions, count * 2 * 4);
+		}
+		int p = count * 4;
+		positions[p] = x0;
+		positions[p + 1] = y0;
+		positions[p + 2] = x1;
+		positions[p + 3] = y1;
+		return count++ * STRIDE;
+	}
+	
+	/**
+	 * Get a position between the previous and the current tick, rounded
+	 * towards zero.
+	 * @param previous The position at the previous tick
+	 * @param current The position at the current tick
+	 * @param t How far between the two ticks (0 to 1)
+	 * @return The position in whole pixels
+	 */
+	private static int interpolate(double previous, double current, double t) {
+		return (int) (t >= 1.0 ? current : previous + (current - previous) * t);
+	}
+}
@@ -14,10 +14,24 @@ import java.awt.Toolkit;
 import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+import javax.sound.sampled.LineUnavailableException;
 import javax.swing.JFrame;
 
+import com.evancarey.game.debug.AllocationTracker;
+import com.evancarey.game.debug.FrameEvent;
+import com.evancarey.game.debug.Profiler;
+import com.evancarey.game.debug.TickEvent;
+import com.evancarey.game.gfx.BandedRasterizer;
+import com.evancarey.game.gfx.DrawList;
+import com.evancarey.game.gfx.FrameExchange;
 import com.evancarey.game.gfx.Renderer;
+import com.evancarey.game.level.Level;
+import com.evancarey.game.sound.AudioMixer;
+import com.evancarey.game.sound.LineSink;
+import com.evancarey.game.sound.SoundQueue;
 /**
  * The main class.
  */
@@ -25,6 +39,10 @@ public class Game extends Canvas implements Runnable {
 
 	private static final long serialVersionUID = 1L;
 	
+	private static final String USAGE = "Usage: Game [-fps n|tick|unlimited] [-pipelined] [-threads n] [-resolution auto|max|WxH] [-music path]";
+	/** The smallest width -resolution accepts, which the menus still fit in */
+	private static final int MIN_WIDTH = 160;
+	
 	private static JFrame frame;
 	
 	public boolean running;
@@ -36,19 +54,96 @@ public class Game extends Canvas implements Runnable {
 	private GameArea area;
 	private InputHandler inputHandler;
 	private Renderer renderer;
+	private FramePacer pacer;
+	/** Adapts the resolution to the frame time (null to keep it fixed) */
+	private ResolutionController resolution;
+	/** The number of threads each frame is drawn with */
+	private int threads;
+	/** Draws recorded frames on several threads (null when single-threaded) */
+	private BandedRasterizer rasterizer;
+	/** The frame being recorded when drawn on several threads */
+	private DrawList drawList;
+	/** Times the frames: the area's profiler, or the render thread's own when pipelined */
+	private Profiler frameProfiler;
+	
+	/** Whether updating and rendering run on separate threads */
+	private boolean pipelined;
+	/** Snapshots taken after the ticks for the render thread */
+	private FrameExchange<FrameSnapshot> frames;
+	/** Ticks run since the render thread last reported */
+	private AtomicInteger ticksRun;
+	/** Ticks still waiting to run when the current one started */
+	private double tickLag;
 	
 	/**
 	 * Constructor to initialize game elements.
+	 * @param targetFps The frames per second to render at (see FramePacer)
+	 * @param pipelined Whether to render on a separate thread (see runPipelined())
+	 * @param threads The number of threads to draw each frame with (see BandedRasterizer)
 	 */
-	public Game() {
+	public Game(int targetFps, boolean pipelined, int threads) {
 		running = false;
 		thread = new Thread(this);
-		image = new BufferedImage(Global.WIDTH, Global.HEIGHT, BufferedImage.TYPE_INT_RGB);
-		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 		
 		inputHandler = new InputHandler(this);
 		area = new GameArea(this);
-		renderer = new Renderer();		
+		pacer = new FramePacer(targetFps);
+		// an unlimited pacer has no frame time, so mark frames slower than a tick
+		Profiler.setTargetFrameNanos(pacer.getFrameNanos() > 0 ? pacer.getFrameNanos() : 1000000000L / Global.TICK_RATE);
+		this.threads = threads;
+		if (threads > 1) {
+			drawList = new DrawList();
+		}
+		
+		this.pipelined = pipelined;
+		if (pipelined) {
+			frames = new FrameExchange<FrameSnapshot>(new FrameSnapshot(), new FrameSnapshot(), new FrameSnapshot());
+			ticksRun = new AtomicInteger();
+			frameProfiler = new Profiler();
+		} else {
+			frameProfiler = area.getProfiler();
+		}
+		setResolution(Global.WIDTH, Global.HEIGHT);
+	}
+	
+	/**
+	 * Set the resolution the game is drawn at. The image is scaled to fill
+	 * the window, so the window keeps its size. Must be called before the
+	 * game starts, or on the game's thread between frames when not pipelined.
+	 * @param width The width of the game image
+	 * @param height The height of the game image
+	 */
+	public void setResolution(int width, int height) {
+		if (image != null && image.getWidth() == width && image.getHeight() == height) {
+			return;
+		}
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		if (renderer == null) {
+			renderer = new Renderer(pixels, width, height); // draw straight into the image
+		} else {
+			renderer = renderer.createTarget(pixels, width, height); // keep the loaded sheets
+		}
+		if (threads > 1) {
+			rasterizer = new BandedRasterizer(renderer, threads);
+		}
+		inputHandler.setViewSize(width, height);
+	}
+	
+	/**
+	 * Turn on or off adapting the resolution to the frame time (see
+	 * ResolutionController). Only the single-threaded loop adapts it; when
+	 * pipelined the resolution stays as set.
+	 * @param maxWidth The widest the resolution may go, or 0 to keep it fixed
+	 */
+	public void setAdaptiveResolution(int maxWidth) {
+		if (maxWidth <= 0) {
+			resolution = null;
+			return;
+		}
+		int fps = pacer.getTargetFps() > 0 ? pacer.getTargetFps() : Global.TICK_RATE;
+		resolution = new ResolutionController(1000000000L / fps, maxWidth);
+		setResolution(resolution.getWidth(), resolution.getHeight());
 	}
 
 	/**
@@ -68,16 +163,22 @@ public class Game extends Canvas implements Runnable {
 	
 	/**
 	 * Run the game.
-	 * There is no limit on how often the game is rendered, but updates
-	 * are limited to 60 times per second (so it plays at constant speed
-	 * irrelevant of machine's power).
+	 * Updates are limited to 60 times per second (so it plays at constant
+	 * speed irrelevant of machine's power), and frames are paced to the
+	 * target FPS so the loop sleeps instead of spinning between them. With an
+	 * adaptive resolution, the time each frame's ticks and drawing took is
+	 * used to pick the resolution of the next frames.
 	 */
 	@Override
 	public void run() {
+		if (pipelined) {
+			runPipelined();
+			return;
+		}
 		long lastTime = System.nanoTime(); // current time in nanoseconds
 		long timer = System.currentTimeMillis(); // current time in milliseconds
 		
-		double ns = 1000000000.0 / 60.0; // nanoseconds per tick
+		double ns = 1000000000.0 / Global.TICK_RATE; // nanoseconds per tick
 		double unprocessed = 0.0;
 		
 		int ticks = 0;
@@ -89,16 +190,23 @@ public class Game extends Canvas implements Runnable {
 			lastTime = now;
 			
 			while (unprocessed >= 1.0) {
+				tickLag = unprocessed - 1.0;
 				update(); // Update game logic
 				ticks++;
 				unprocessed -= 1.0;
 			}
 						
+			renderer.setInterpolation(unprocessed); // draw between the last two ticks
 			render(); // Render game to screen
 			frames++;
+			if (resolution != null && resolution.addFrame(System.nanoTime() - now)) {
+				setResolution(resolution.getWidth(), resolution.getHeight());
+			}
+			pacer.waitForFrame();
 			
 			if (System.currentTimeMillis() - timer >= 1000) {
-				System.out.println(ticks + " ticks, " + frames + " fps");
+				System.out.println(ticks + " ticks, " + frames + " fps (" + pacer.report() + ") at "
+						+ image.getWidth() + "x" + image.getHeight());
 				frames = 0;
 				ticks = 0;
 				timer += 1000;
@@ -107,20 +215,151 @@ public class Game extends Canvas implements Runnable {
 		stop();
 	}
 	
+	/**
+	 * Run the game with updating and rendering overlapped on two threads.
+	 * This thread runs the ticks and, after each, takes a snapshot of what
+	 * is on screen (see FrameSnapshot). A separate render thread draws the
+	 * latest snapshot at the target FPS, so a slow frame no longer delays the
+	 * next tick. As the snapshot keeps the last two ticks' positions, frames
+	 * are still drawn between them by the time since the tick was due.
+	 */
+	private void runPipelined() {
+		Thread renderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				renderLoop();
+			}
+		}, "Render");
+		renderThread.start();
+		
+		long lastTime = System.nanoTime();
+		double ns = 1000000000.0 / Global.TICK_RATE; // nanoseconds per tick
+		double unprocessed = 0.0;
+		
+		while (running) {
+			long now = System.nanoTime();
+			unprocessed += (now - lastTime) / ns;
+			lastTime = now;
+			
+			boolean ticked = false;
+			while (unprocessed >= 1.0) {
+				tickLag = unprocessed - 1.0;
+				update(); // Update game logic
+				ticksRun.incrementAndGet();
+				unprocessed -= 1.0;
+				ticked = true;
+			}
+			
+			if (ticked) { // take a snapshot of the new state for the render thread
+				FrameSnapshot snapshot = frames.getBack();
+				area.capture(snapshot, renderer.getWidth(), renderer.getHeight());
+				snapshot.setTickTime(now - (long) (unprocessed * ns)); // when the last tick was due
+				if (Global.debug) { // for the render thread's overlay
+					area.getProfiler().copyTo(snapshot.getProfiler());
+				}
+				frames.publish();
+			}
+			LockSupport.parkNanos((long) ((1.0 - unprocessed) * ns)); // sleep until the next tick
+		}
+		try {
+			renderThread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Draw the latest snapshot, between its last two ticks, paced to the
+	 * target FPS. Once a frame is drawn at the snapshot's current tick,
+	 * nothing more is drawn until the next snapshot. Runs on the render
+	 * thread in pipelined mode.
+	 */
+	private void renderLoop() {
+		FrameDrawer drawer = new FrameDrawer();
+		FrameSnapshot snapshot = null;
+		Profiler overlay = new Profiler(); // both threads' phases
+		double ns = 1000000000.0 / Global.TICK_RATE; // nanoseconds per tick
+		long timer = System.currentTimeMillis();
+		int frameCount = 0;
+		
+		while (running) {
+			BufferStrategy bs = getBufferStrategy();
+			if (bs == null) {
+				createBufferStrategy(3); // triple-buffering
+				requestFocus();
+				continue;
+			}
+			FrameSnapshot latest = frames.acquire();
+			if (latest != null || (snapshot != null && renderer.getInterpolation() < 1.0)) {
+				if (latest != null) {
+					snapshot = latest;
+				}
+				renderer.setInterpolation(Math.min((System.nanoTime() - snapshot.getTickTime()) / ns, 1.0));
+				FrameEvent event = FrameEvent.start();
+				if (rasterizer != null) {
+					drawList.clear();
+					renderer.record(drawList);
+				}
+				frameProfiler.begin(Profiler.DRAW);
+				drawer.draw(snapshot, renderer);
+				frameProfiler.end(Profiler.DRAW);
+				if (Global.debug) {
+					snapshot.getProfiler().copyTo(overlay);
+					frameProfiler.copyTo(overlay);
+					overlay.draw(renderer);
+				}
+				if (rasterizer != null) {
+					renderer.record(null);
+					frameProfiler.begin(Profiler.REPLAY);
+					rasterizer.replay(drawList);
+					frameProfiler.end(Profiler.REPLAY);
+				}
+				show(bs);
+				if (event != null && event.shouldCommit()) { // the level belongs to the other thread, so its counts are left out
+					event.width = renderer.getWidth();
+					event.height = renderer.getHeight();
+					event.interpolation = renderer.getInterpolation();
+					event.commit();
+				}
+				frameCount++;
+			}
+			pacer.waitForFrame();
+			
+			if (System.currentTimeMillis() - timer >= 1000) {
+				System.out.println(ticksRun.getAndSet(0) + " ticks, " + frameCount + " fps (" + pacer.report() + ")");
+				frameCount = 0;
+				timer += 1000;
+			}
+		}
+	}
+	
 	/**
 	 * Update the game's logic.
 	 */
 	public void update() {
+		AllocationTracker.beginTick();
+		TickEvent event = TickEvent.start();
+		area.getProfiler().begin(Profiler.INPUT);
 		inputHandler.update();
+		area.getProfiler().end(Profiler.INPUT);
 		area.update();
+		SoundQueue.flush();
 		if (inputHandler.KEY_ESCAPE.isClicked()) { // quit game
 			stop();
 			System.exit(0);
 		}
+		if (event != null && event.shouldCommit()) {
+			Level level = area.getLevel();
+			event.tickLag = tickLag;
+			event.entityCount = level != null ? level.getEntities().size() : 0;
+			event.commit();
+		}
+		AllocationTracker.endTick();
 	}
 	
 	/**
-	 * Draw game image on screen.
+	 * Draw game image on screen. When drawing on several threads, the frame
+	 * is recorded first and then drawn in bands.
 	 */
 	public void render() {
 		BufferStrategy bs = getBufferStrategy();
@@ -130,16 +369,51 @@ public class Game extends Canvas implements Runnable {
 			return;
 		}
 
+		FrameEvent event = FrameEvent.start();
+		if (rasterizer != null) {
+			drawList.clear();
+			renderer.record(drawList);
+		}
+		frameProfiler.begin(Profiler.DRAW);
 		area.draw(renderer);
-		
-		for (int i = 0; i < pixels.length; i++) {
-			pixels[i] = renderer.getPixel(i);
+		frameProfiler.end(Profiler.DRAW);
+		if (Global.debug) {
+			frameProfiler.draw(renderer);
 		}
-		
+		if (rasterizer != null) {
+			renderer.record(null);
+			frameProfiler.begin(Profiler.REPLAY);
+			rasterizer.replay(drawList);
+			frameProfiler.end(Profiler.REPLAY);
+		}
+		show(bs);
+		if (event != null && event.shouldCommit()) {
+			Level level = area.getLevel();
+			if (level != null) {
+				event.visibleTiles = level.countVisibleTiles();
+				event.visibleEntities = level.getVisibleEntityCount();
+			}
+			event.width = renderer.getWidth();
+			event.height = renderer.getHeight();
+			event.interpolation = renderer.getInterpolation();
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Copy the game image to the screen, ending the frame.
+	 * @param bs The canvas's buffer strategy
+	 */
+	private void show(BufferStrategy bs) {
+		frameProfiler.begin(Profiler.UPLOAD);
 		Graphics g = bs.getDrawGraphics();
-		g.drawImage(image, 0, 0, Global.WIDTH * Global.SCALE, Global.HEIGHT * Global.SCALE, null);
+		g.drawImage(image, 0, 0, Global.WIDTH * Global.SCALE, Global.HEIGHT * Global.SCALE, null); // scaled to the window
 		g.dispose();
+		frameProfiler.end(Profiler.UPLOAD);
+		frameProfiler.begin(Profiler.SHOW);
 		bs.show();
+		frameProfiler.end(Profiler.SHOW);
+		frameProfiler.endFrame();
 	}
 	
 	/**
@@ -150,13 +424,92 @@ public class Game extends Canvas implements Runnable {
 		return inputHandler;
 	}
 
+	/**
+	 * Parse a resolution given as WxH.
+	 * @param value The resolution, e.g. 320x240
+	 * @return The width and height, or null if the value is not a 4:3
+	 *         resolution at least MIN_WIDTH wide
+	 */
+	private static int[] parseResolution(String value) {
+		if (!value.matches("\\d{1,5}x\\d{1,5}")) {
+			return null;
+		}
+		int x = value.indexOf('x');
+		int width = Integer.parseInt(value.substring(0, x));
+		int height = Integer.parseInt(value.substring(x + 1));
+		if (width < MIN_WIDTH || width * 3 != height * 4) {
+			return null;
+		}
+		return new int[] {width, height};
+	}
+	
 	/**
 	 * Main method.
 	 * Initializes the JFrame that contains the game and starts the game.
-	 * @param args Unused
+	 * Usage: Game [-fps n|tick|unlimited] [-pipelined] [-threads n] [-resolution auto|max|WxH] [-music path]
+	 * By default frames are rendered once per tick, on the game's thread.
+	 * The resolution is lowered when frames take too long (auto, the
+	 * default), may also be raised above the default on fast machines (max),
+	 * or is fixed (4:3 and at least 160x120, e.g. 320x240); the window's size
+	 * stays the same.
+	 * With -threads, each frame is drawn by n threads (1 for only the game's
+	 * or render thread); the default is one per processor.
+	 * With -music, the WAV file at the resource path is played in the level.
+	 * @param args The command line arguments
 	 */
 	public static void main(String[] args) {
-		Game game = new Game();
+		int targetFps = FramePacer.MATCH_TICK_RATE;
+		boolean pipelined = false;
+		String music = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int maxWidth = Global.WIDTH;
+		int width = Global.WIDTH;
+		int height = Global.HEIGHT;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-pipelined")) {
+				pipelined = true;
+			} else if (args[i].equals("-resolution") && i + 1 < args.length) {
+				String resolution = args[++i];
+				if (resolution.equals("auto")) {
+					maxWidth = Global.WIDTH;
+				} else if (resolution.equals("max")) {
+					maxWidth = Integer.MAX_VALUE;
+				} else {
+					int[] size = parseResolution(resolution);
+					if (size == null) {
+						System.err.println("Invalid resolution: " + resolution + " (must be 4:3 and at least "
+								+ MIN_WIDTH + "x" + MIN_WIDTH / 4 * 3 + ", e.g. 320x240)");
+						System.err.println(USAGE);
+						System.exit(1);
+					}
+					width = size[0];
+					height = size[1];
+					maxWidth = 0;
+				}
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-music") && i + 1 < args.length) {
+				music = args[++i];
+			} else if (args[i].equals("-fps") && i + 1 < args.length) {
+				String fps = args[++i];
+				if (fps.equals("tick")) {
+					targetFps = FramePacer.MATCH_TICK_RATE;
+				} else if (fps.equals("unlimited")) {
+					targetFps = FramePacer.UNLIMITED;
+				} else {
+					targetFps = Integer.parseInt(fps);
+				}
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+		}
+		
+		Game game = new Game(targetFps, pipelined, threads);
+		game.area.setMusicPath(music);
+		game.setResolution(width, height);
+		game.setAdaptiveResolution(maxWidth);
 		Dimension size = new Dimension(Global.WIDTH * Global.SCALE - 10 , Global.HEIGHT * Global.SCALE - 10);
 
 		game.setMinimumSize(size);
@@ -180,6 +533,12 @@ public class Game extends Canvas implements Runnable {
 		frame.setLocation(screenSize.width / 2 - frame.getWidth() / 2,
 					screenSize.height / 2 - frame.getHeight() / 2);
 		
+		try {
+			AudioMixer.getMixer().setSink(new LineSink());
+		} catch (LineUnavailableException | IllegalArgumentException e) {
+			System.err.println("No audio output: " + e.getMessage());
+		}
+		AudioMixer.getMixer().start();
 		game.start();
 	}
 }
\ No newline at end of file
@@ -1,17 +1,30 @@
 package com.evancarey.game;
 
+import com.evancarey.game.debug.Profiler;
 import com.evancarey.game.gfx.Renderer;
 import com.evancarey.game.gui.Gui;
 import com.evancarey.game.level.Level;
+import com.evancarey.game.sound.AudioMixer;
 
 public class GameArea {
 
+	/** The game containing the area (null when running headless) */
 	private Game game;
+	private InputHandler inputHandler;
 	private Gui gui;
+	/** The snapshot and drawer used by draw(), when frames are drawn on the area's thread */
+	private FrameSnapshot snapshot;
+	private FrameDrawer drawer;
+	/** Times the area's thread: its ticks, and its frames unless pipelined */
+	private Profiler profiler;
 	
 	private boolean paused;
+	private boolean ended;
 	
 	private Level level;
+	private String levelPath;
+	/** The music played in the level (null for none) */
+	private String musicPath;
 	
 	/** Background has not been implemented yet. */
 	//private int backgroundX, backgroundY;
@@ -21,11 +34,27 @@ public class GameArea {
 	 * @param game The current game
 	 */
 	public GameArea(Game game) {
+		this(game.getInputHandler());
 		this.game = game;
+	}
+	
+	/**
+	 * Constructor to initialize a game area that is not attached to a display.
+	 * @param inputHandler The input handler the area reads from
+	 */
+	public GameArea(InputHandler inputHandler) {
+		this.game = null;
+		this.inputHandler = inputHandler;
 		
 		paused = false;
+		ended = false;
+		levelPath = "/levels/test_level.lvl";
+		musicPath = null;
 		level = null;
 		gui = new Gui();
+		snapshot = new FrameSnapshot();
+		drawer = new FrameDrawer();
+		profiler = new Profiler();
 		
 		//backgroundX = Global.WIDTH / 2;
 		//backgroundY = Global.HEIGHT / 2;
@@ -35,7 +64,26 @@ public class GameArea {
 	 * Start the game by initializing the level.
 	 */
 	public void startGame() {
-		level = new Level("/levels/test_level.png");
+		level = new Level(levelPath);
+		if (musicPath != null) {
+			AudioMixer.getMixer().playMusic(musicPath, 0);
+		}
+	}
+	
+	/**
+	 * Set the level that is loaded when the game starts.
+	 * @param levelPath The resource path of the level image
+	 */
+	public void setLevelPath(String levelPath) {
+		this.levelPath = levelPath;
+	}
+	
+	/**
+	 * Set the music that is played in the level. It loops from the start.
+	 * @param musicPath The resource path of the WAV file, or null for none
+	 */
+	public void setMusicPath(String musicPath) {
+		this.musicPath = musicPath;
 	}
 	
 	/**
@@ -43,6 +91,7 @@ public class GameArea {
 	 */
 	public void winGame() {
 		level = null;
+		AudioMixer.getMixer().stopMusic();
 		gui.win();
 	}
 
@@ -51,6 +100,7 @@ public class GameArea {
 	 */
 	public void loseGame() {
 		level = null;
+		AudioMixer.getMixer().stopMusic();
 		gui.lose();
 	}
 	
@@ -58,8 +108,11 @@ public class GameArea {
 	 * End the game.
 	 */
 	public void endGame() {
-		game.stop();
-		System.exit(0);
+		ended = true;
+		if (game != null) {
+			game.stop();
+			System.exit(0);
+		}
 	}
 	
 	/**
@@ -81,11 +134,16 @@ public class GameArea {
 		if (getInputHandler().KEY_PAUSE.isClicked() && gui.getMenu() == -1) {
 			paused = !paused;
 			gui.togglePause(paused);
+			if (level != null) {
+				level.resetInterpolation(); // hold still while paused
+			}
 		}
 		
 		if (level != null) {
 			if (!paused) {
+				profiler.begin(Profiler.LEVEL);
 				level.update(this);
+				profiler.end(Profiler.LEVEL);
 			}
 			if (level != null && level.getPlayer() != null) {
 				//backgroundX = (int) level.getPlayer().getX() - level.getCameraX();
@@ -106,22 +164,44 @@ public class GameArea {
 			//backgroundY = Global.HEIGHT / 2;
 		}
 		if (gui != null) {
+			profiler.begin(Profiler.GUI);
 			gui.update(this);
+			profiler.end(Profiler.GUI);
 		}
 	}
 	
 	/**
-	 * Render the game area.
+	 * Render the game area, by taking a snapshot of it and drawing that.
+	 * The level and GUI are collected in a sprite batch and drawn in layer
+	 * order once everything has been added (see FrameDrawer).
 	 * @param renderer Object responsible for drawing game images
 	 */
 	public void draw(Renderer renderer) {
-//		renderer.clearScreen(backgroundX, backgroundY);
-		renderer.clearScreen(0x9bcefd);
-		if (level != null) {
-			level.draw(renderer);
+		capture(snapshot, renderer.getWidth(), renderer.getHeight());
+		drawer.draw(snapshot, renderer);
+	}
+	
+	/**
+	 * Take a snapshot of what is on screen, to be drawn by a FrameDrawer
+	 * (possibly on another thread, while the next tick runs).
+	 * @param snapshot The snapshot to take, which is cleared first
+	 * @param width The width of the screen the frame is drawn on
+	 * @param height The height of the screen the frame is drawn on
+	 */
+	public void capture(FrameSnapshot snapshot, int width, int height) {
+		snapshot.begin(width, height);
+		if (gui != null) {
+			gui.setSize(width, height);
+		}
+		// a menu's panel hides the level completely
+		if (gui == null || !gui.coversScreen(width, height)) {
+			snapshot.setSkyVisible(true);
+			if (level != null) {
+				level.capture(snapshot);
+			}
 		}
 		if (gui != null) {
-			gui.draw(renderer);
+			gui.capture(snapshot);
 		}
 	}
 	
@@ -130,7 +210,15 @@ public class GameArea {
 	 * @return The game's input handler.
 	 */
 	public InputHandler getInputHandler() {
-		return game.getInputHandler();
+		return inputHandler;
+	}
+	
+	/**
+	 * Check whether the player chose to quit the game.
+	 * @return True if the game has ended
+	 */
+	public boolean isEnded() {
+		return ended;
 	}
 	
 	/**
@@ -148,4 +236,12 @@ public class GameArea {
 	public Gui getGui() {
 		return gui;
 	}
+	
+	/**
+	 * Get the profiler that times the area's thread.
+	 * @return The profiler
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
 }
@@ -5,14 +5,31 @@ import java.util.Random;
 /** Contains global variables and functions */
 public class Global {
 
+	/** The default resolution the game is drawn at (see ResolutionController) */
 	public static final int WIDTH = 256;
 	public static final int HEIGHT = WIDTH / 4 * 3;
+	/** The window is SCALE times the default resolution, whatever the game is drawn at */
 	public static final int SCALE = 4;
+	/** The number of game updates per second */
+	public static final int TICK_RATE = 60;
 	public static final String NAME = "Final Project\n\n\nby Evan Carey";
 	public static boolean debug = false;
 	
 	public static Random random = new Random();
 	
+	/**
+	 * The product of each pair of channel values, as a fraction of 255:
+	 * entry (a << 8) | b is (int) ((a / 255.0) * (b / 255.0) * 255).
+	 */
+	private static final byte[] MULTIPLY_TABLE = new byte[256 * 256];
+	static {
+		for (int a = 0; a < 256; a++) {
+			for (int b = 0; b < 256; b++) {
+				MULTIPLY_TABLE[(a << 8) | b] = (byte) (int) ((a / 255.0) * (b / 255.0) * 255);
+			}
+		}
+	}
+	
 	public static int randomInt(int i) {
 		return random.nextInt(i);
 	}
@@ -37,18 +54,38 @@ public class Global {
 		return Math.atan2(dy, dx);
 	}
 	
+	/**
+	 * Multiply two colors channel by channel, as if each channel were a
+	 * fraction of 255 (rounded down). The products of every pair of channel
+	 * values are looked up in MULTIPLY_TABLE.
+	 * @param c0 The first color
+	 * @param c1 The second color
+	 * @return The product
+	 */
 	public static int multiplyColors(int c0, int c1) {
-		int r = (int) ((getR(c0) / 255.0) * (getR(c1) / 255.0) * 255);
-		int g = (int) ((getG(c0) / 255.0) * (getG(c1) / 255.0) * 255);
-		int b = (int) ((getB(c0) / 255.0) * (getB(c1) / 255.0) * 255);
+		int r = MULTIPLY_TABLE[(c0 >> 8 & 0xff00) | getR(c1)] & 0xff;
+		int g = MULTIPLY_TABLE[(c0 & 0xff00) | getG(c1)] & 0xff;
+		int b = MULTIPLY_TABLE[(c0 << 8 & 0xff00) | getB(c1)] & 0xff;
 		return (r << 16) + (g << 8) + b;
 	}
 	
+	/**
+	 * Add two colors channel by channel, each channel saturating at 255.
+	 * The red and blue channels are added together in one int, and green in
+	 * another, with room for each sum's carry bit above it; a carry is then
+	 * turned into 0xff for its channel.
+	 * @param c0 The first color
+	 * @param c1 The second color
+	 * @return The sum
+	 */
 	public static int addColors(int c0, int c1) {
-		int r = Math.min(getR(c0) + getR(c1), 255);
-		int g = Math.min(getG(c0) + getG(c1), 255);
-		int b = Math.min(getB(c0) + getB(c1), 255);
-		return (r << 16) + (g << 8) + b;
+		int rb = (c0 & 0xff00ff) + (c1 & 0xff00ff);
+		int g = (c0 & 0x00ff00) + (c1 & 0x00ff00);
+		int carries = rb & 0x1000100;
+		rb = (rb | (carries - (carries >> 8))) & 0xff00ff;
+		carries = g & 0x10000;
+		g = (g | (carries - (carries >> 8))) & 0x00ff00;
+		return rb | g;
 	}
 	
 	public static int getR(int color) {
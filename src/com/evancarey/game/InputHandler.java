@@ -21,6 +21,8 @@ public class InputHandler implements KeyListener, MouseListener, MouseMotionList
 	public Input MOUSE_LEFT, MOUSE_RIGHT, MOUSE_MIDDLE;
 	/** Mouse position */
 	public int x, y;
+	/** The resolution the game is drawn at, which mouse positions are scaled to */
+	private int viewWidth, viewHeight;
 
 	// Input inner class
 	public class Input {
@@ -84,10 +86,18 @@ public class InputHandler implements KeyListener, MouseListener, MouseMotionList
 	 * @param game The game
 	 */
 	public InputHandler(Game game) {
+		this();
 		game.addKeyListener(this);
 		game.addMouseListener(this);
 		game.addMouseMotionListener(this);
+	}
 
+	/**
+	 * Constructor to initialize inputs without attaching any listeners.
+	 * Used when there is no display, in which case the inputs are toggled
+	 * directly (e.g. by an InputScript).
+	 */
+	public InputHandler() {
 		buttons = new ArrayList<Input>();
 		
 		KEY_RIGHT = new Input();
@@ -109,6 +119,19 @@ public class InputHandler implements KeyListener, MouseListener, MouseMotionList
 
 		x = 0;
 		y = 0;
+		viewWidth = Global.WIDTH;
+		viewHeight = Global.HEIGHT;
+	}
+	
+	/**
+	 * Set the resolution the game is drawn at. The image is scaled to fill
+	 * the window, so mouse positions are scaled back to it.
+	 * @param width The width of the game image
+	 * @param height The height of the game image
+	 */
+	public void setViewSize(int width, int height) {
+		viewWidth = width;
+		viewHeight = height;
 	}
 
 	/**
@@ -171,14 +194,14 @@ public class InputHandler implements KeyListener, MouseListener, MouseMotionList
 // MouseMotionListener methods
 	@Override
 	public void mouseDragged(MouseEvent me) {
-		x = me.getX() / Global.SCALE;
-		y = me.getY() / Global.SCALE;
+		x = me.getX() * viewWidth / (Global.WIDTH * Global.SCALE);
+		y = me.getY() * viewHeight / (Global.HEIGHT * Global.SCALE);
 	}
 
 	@Override
 	public void mouseMoved(MouseEvent me) {
-		x = me.getX() / Global.SCALE;
-		y = me.getY() / Global.SCALE;
+		x = me.getX() * viewWidth / (Global.WIDTH * Global.SCALE);
+		y = me.getY() * viewHeight / (Global.HEIGHT * Global.SCALE);
 	}
 
 	/**
@@ -0,0 +1,188 @@
+package com.evancarey.game;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A scripted source of input, used in place of the keyboard when the game
+ * runs without a display.
+ *
+ * Scripts are plain text, one event per line:
+ * <pre>
+ * # tick  input     state
+ * 1       ACTION_0  down
+ * 2       ACTION_0  up
+ * loop 600
+ * </pre>
+ * Inputs are named after the InputHandler fields without the KEY_ prefix.
+ * The optional "loop" line restarts the script every given number of ticks.
+ */
+public class InputScript {
+	
+	/** The names of the inputs a script can toggle, matching getInput() */
+	private static final String[] INPUTS = {
+		"RIGHT", "LEFT", "UP", "DOWN", "ACTION_0", "ACTION_1", "ACTION_2", "PAUSE", "ESCAPE", "DEBUG"
+	};
+	
+	private List<Event> events;
+	private int loop;
+	
+	/** A single scripted change to an input */
+	private static class Event {
+		private int tick;
+		private String input;
+		private boolean pressed;
+		
+		private Event(int tick, String input, boolean pressed) {
+			this.tick = tick;
+			this.input = input;
+			this.pressed = pressed;
+		}
+	}
+	
+	/**
+	 * Construct an empty script.
+	 */
+	public InputScript() {
+		events = new ArrayList<Event>();
+		loop = 0;
+	}
+	
+	/**
+	 * Add an event to the script.
+	 * @param tick The tick the event happens on
+	 * @param input The name of the input (e.g. "RIGHT" or "ACTION_0")
+	 * @param pressed Whether the input is pressed or released
+	 * @return The script
+	 */
+	public InputScript add(int tick, String input, boolean pressed) {
+		events.add(new Event(tick, input.toUpperCase(), pressed));
+		return this;
+	}
+	
+	/**
+	 * Restart the script every given number of ticks.
+	 * @param loop The length of the script in ticks (0 to play it once)
+	 * @return The script
+	 */
+	public InputScript setLoop(int loop) {
+		this.loop = loop;
+		return this;
+	}
+	
+	/**
+	 * Apply the events for a tick to the input handler.
+	 * @param tick The current tick
+	 * @param input The input handler to toggle
+	 */
+	public void apply(int tick, InputHandler input) {
+		if (loop > 0) {
+			tick %= loop;
+		}
+		for (int i = 0; i < events.size(); i++) {
+			Event event = events.get(i);
+			if (event.tick == tick) {
+				getInput(input, event.input).toggle(event.pressed);
+			}
+		}
+	}
+	
+	/**
+	 * Get an input from the input handler by name.
+	 * @param handler The input handler
+	 * @param name The name of the input
+	 * @return The input
+	 */
+	private static InputHandler.Input getInput(InputHandler handler, String name) {
+		switch (name) {
+		case "RIGHT": return handler.KEY_RIGHT;
+		case "LEFT": return handler.KEY_LEFT;
+		case "UP": return handler.KEY_UP;
+		case "DOWN": return handler.KEY_DOWN;
+		case "ACTION_0": return handler.KEY_ACTION_0;
+		case "ACTION_1": return handler.KEY_ACTION_1;
+		case "ACTION_2": return handler.KEY_ACTION_2;
+		case "PAUSE": return handler.KEY_PAUSE;
+		case "ESCAPE": return handler.KEY_ESCAPE;
+		case "DEBUG": return handler.KEY_DEBUG;
+		}
+		throw new IllegalArgumentException("Unknown input: " + name);
+	}
+	
+	/**
+	 * Check whether a name is one of the inputs a script can toggle.
+	 * @param name The name of the input, in any case
+	 * @return Whether the input exists
+	 */
+	private static boolean isInput(String name) {
+		for (int i = 0; i < INPUTS.length; i++) {
+			if (INPUTS[i].equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Check whether a script field is a tick count that fits in an int.
+	 * @param value The field
+	 * @return Whether the field is a non-negative number
+	 */
+	private static boolean isNumber(String value) {
+		return value.matches("\\d{1,9}");
+	}
+	
+	/**
+	 * Load a script from a file.
+	 * @param path The path of the script file
+	 * @return The script
+	 * @throws IOException If the file cannot be read
+	 */
+	public static InputScript load(String path) throws IOException {
+		InputScript script = new InputScript();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split("\\s+");
+				if (parts[0].equals("loop") && parts.length == 2 && isNumber(parts[1])) {
+					script.setLoop(Integer.parseInt(parts[1]));
+				} else if (parts.length == 3 && isNumber(parts[0])
+						&& (parts[2].equals("down") || parts[2].equals("up"))) {
+					if (!isInput(parts[1])) {
+						throw new IOException(path + ":" + number + ": unknown input \"" + parts[1] + "\"");
+					}
+					script.add(Integer.parseInt(parts[0]), parts[1], parts[2].equals("down"));
+				} else {
+					throw new IOException(path + ":" + number + ": expected \"<tick> <input> <down|up>\"");
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return script;
+	}
+	
+	/**
+	 * The default soak-test script: hold right and tap jump once a second.
+	 * Tapping jump also steps through the menus, so the script keeps
+	 * restarting the level after the player wins or dies.
+	 * @return The script
+	 */
+	public static InputScript soak() {
+		return new InputScript()
+				.add(0, "RIGHT", true)
+				.add(0, "ACTION_0", true)
+				.add(10, "ACTION_0", false)
+				.setLoop(60);
+	}
+}
@@ -0,0 +1,116 @@
+package com.evancarey.game;
+
+/**
+ * Picks the internal resolution the game is drawn at so each frame's work
+ * fits in the frame time. The image is scaled to fill the window, so only
+ * the sharpness and how much of the level is seen change. Frame times are
+ * averaged over a window of frames: when a window runs over the budget the
+ * resolution steps down, and when the next step up (which costs about as
+ * much more as it has more pixels) would still leave plenty of headroom,
+ * it steps up. After a change a few windows are skipped, so the cost of the
+ * change itself and a single busy moment do not make the resolution swing.
+ */
+public class ResolutionController {
+	
+	/** The widths the resolution steps between, all 4:3 like the default */
+	private static final int[] WIDTHS = {160, 192, 224, 256, 320, 384};
+	/** The number of frames averaged before deciding */
+	private static final int WINDOW = 30;
+	/** Windows to wait after a change before stepping again */
+	private static final int COOLDOWN = 4;
+	/** The fraction of the budget above which the resolution steps down */
+	private static final double HIGH = 0.9;
+	/** The fraction of the budget the next step up must be estimated to stay under */
+	private static final double LOW = 0.6;
+	
+	/** Nanoseconds each frame's work should fit in */
+	private long budget;
+	private int step;
+	private int minStep;
+	private int maxStep;
+	
+	private long windowSum;
+	private int windowFrames;
+	/** Windows left before the resolution may change again */
+	private int cooldown;
+	
+	/**
+	 * Construct a controller starting at the default resolution.
+	 * @param budget The nanoseconds each frame's work should fit in
+	 * @param maxWidth The widest the resolution may go (the default width
+	 *                 to only ever lower it)
+	 */
+	public ResolutionController(long budget, int maxWidth) {
+		this.budget = budget;
+		step = findStep(Global.WIDTH);
+		minStep = 0;
+		maxStep = Math.max(findStep(maxWidth), step);
+		windowSum = 0;
+		windowFrames = 0;
+		cooldown = COOLDOWN;
+	}
+	
+	/**
+	 * Record how long a frame's work took (updating and drawing, not the
+	 * time spent waiting for the next frame).
+	 * @param nanos The frame's work in nanoseconds
+	 * @return True if the resolution changed
+	 */
+	public boolean addFrame(long nanos) {
+		windowSum += nanos;
+		windowFrames++;
+		if (windowFrames < WINDOW) {
+			return false;
+		}
+		double average = (double) windowSum / windowFrames;
+		windowSum = 0;
+		windowFrames = 0;
+		if (cooldown > 0) {
+			cooldown--;
+			return false;
+		}
+		
+		if (average > budget * HIGH && step > minStep) {
+			step--;
+		} else if (step < maxStep && average * getPixels(step + 1) / getPixels(step) < budget * LOW) {
+			step++;
+		} else {
+			return false;
+		}
+		cooldown = COOLDOWN;
+		return true;
+	}
+	
+	/**
+	 * Get the width of the chosen resolution.
+	 * @return The width in pixels
+	 */
+	public int getWidth() {
+		return WIDTHS[step];
+	}
+	
+	/**
+	 * Get the height of the chosen resolution.
+	 * @return The height in pixels
+	 */
+	public int getHeight() {
+		return WIDTHS[step] / 4 * 3;
+	}
+	
+	private static double getPixels(int step) {
+		return (double) WIDTHS[step] * (WIDTHS[step] / 4 * 3);
+	}
+	
+	/**
+	 * Find the widest step no wider than a width.
+	 * @param width The width
+	 * @return The step (0 if every step is wider)
+	 */
+	private static int findStep(int width) {
+		int step = 0;
+		while (step + 1 < WIDTHS.length && WIDTHS[step + 1] <= width) {
+			step++;
+		}
+		return step;
+	}
+}
@@ -0,0 +1,304 @@
+package com.evancarey.game;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+
+import com.evancarey.game.debug.AllocationTracker;
+import com.evancarey.game.debug.TickEvent;
+import com.evancarey.game.gfx.BandedRasterizer;
+import com.evancarey.game.gfx.DrawList;
+import com.evancarey.game.gfx.Renderer;
+import com.evancarey.game.level.Level;
+import com.evancarey.game.sound.AudioMixer;
+import com.evancarey.game.sound.SoundQueue;
+import com.evancarey.game.sound.WavFileSink;
+
+/**
+ * Runs the game's update logic without a display.
+ * Ticks are run back to back with no sleeping, using an InputScript in
+ * place of the keyboard. Used to soak-test levels and to measure how many
+ * ticks per second the simulation can sustain. The audio mixer is stepped
+ * by a tick's worth of audio each tick, so sounds line up with the ticks
+ * however fast they run.
+ */
+public class Simulation {
+	
+	private InputHandler inputHandler;
+	private GameArea area;
+	private InputScript script;
+	
+	/** Ticks run before allocations are checked against a budget */
+	private static final int BUDGET_WARMUP = 60 * 60;
+	/** Frames of audio mixed per tick */
+	private static final int AUDIO_FRAMES_PER_TICK = AudioMixer.SAMPLE_RATE / Global.TICK_RATE;
+	
+	private int tick;
+	/** Paces the ticks in real time (null to run as fast as possible) */
+	private FramePacer pacer;
+	
+	/** Images and renderers used to verify the rendered frames */
+	private BufferedImage copiedImage, directImage;
+	private Renderer copyingRenderer, directRenderer;
+	/** Renderers and list used to verify recorded frames */
+	private Renderer recorder, replayRenderer, bandedRenderer;
+	private DrawList drawList;
+	private BandedRasterizer rasterizer;
+	
+	/**
+	 * Construct a new simulation at the title screen.
+	 * @param script The script that drives the inputs
+	 */
+	public Simulation(InputScript script) {
+		this.script = script;
+		inputHandler = new InputHandler();
+		area = new GameArea(inputHandler);
+		tick = 0;
+	}
+	
+	/**
+	 * Run a single tick, the same way Game.update() does.
+	 */
+	public void update() {
+		AllocationTracker.beginTick();
+		TickEvent event = TickEvent.start();
+		script.apply(tick, inputHandler);
+		inputHandler.update();
+		area.update();
+		SoundQueue.flush();
+		AudioMixer.getMixer().mix(AUDIO_FRAMES_PER_TICK);
+		tick++;
+		if (event != null && event.shouldCommit()) {
+			Level level = area.getLevel();
+			event.entityCount = level != null ? level.getEntities().size() : 0;
+			event.commit(); // ticks run back to back, so there is no lag
+		}
+		AllocationTracker.endTick();
+	}
+	
+	/**
+	 * Set whether run() runs the ticks in real time, at Global.TICK_RATE,
+	 * as the game does. Needed by anything that runs alongside the ticks on
+	 * another thread in real time, such as streaming music.
+	 * @param realTime Whether to run in real time
+	 */
+	public void setRealTime(boolean realTime) {
+		pacer = realTime ? new FramePacer(FramePacer.MATCH_TICK_RATE) : null;
+	}
+	
+	/**
+	 * Run the simulation as fast as possible (or in real time, see setRealTime()).
+	 * @param ticks The number of ticks to run
+	 * @return The number of ticks run per second
+	 */
+	public double run(int ticks) {
+		long start = System.nanoTime();
+		long timer = start;
+		int count = 0;
+		
+		for (int i = 0; i < ticks && !area.isEnded(); i++) {
+			update();
+			count++;
+			if (pacer != null) {
+				pacer.waitForFrame();
+			}
+			
+			long now = System.nanoTime();
+			if (now - timer >= 1000000000L) {
+				System.out.println(count + " ticks");
+				count = 0;
+				timer += 1000000000L;
+			}
+		}
+		return tick / ((System.nanoTime() - start) / 1000000000.0);
+	}
+	
+	/**
+	 * Render the current frame four times and check that the images match:
+	 * through a renderer with its own pixel array that is copied into the image
+	 * pixel by pixel, through a renderer that draws straight into the image's
+	 * data buffer (as Game.render() does), and by recording the frame into a
+	 * draw list and replaying it, and by replaying that list on several
+	 * threads in bands (as Game does with -threads).
+	 * @return True if the frames are pixel-identical
+	 */
+	public boolean verifyFrame() {
+		if (copiedImage == null) {
+			copiedImage = new BufferedImage(Global.WIDTH, Global.HEIGHT, BufferedImage.TYPE_INT_RGB);
+			directImage = new BufferedImage(Global.WIDTH, Global.HEIGHT, BufferedImage.TYPE_INT_RGB);
+			copyingRenderer = new Renderer();
+			directRenderer = new Renderer(((DataBufferInt) directImage.getRaster().getDataBuffer()).getData(), Global.WIDTH, Global.HEIGHT);
+			recorder = directRenderer.createTarget(null, Global.WIDTH, Global.HEIGHT);
+			replayRenderer = directRenderer.createTarget(new int[Global.WIDTH * Global.HEIGHT], Global.WIDTH, Global.HEIGHT);
+			drawList = new DrawList();
+			bandedRenderer = directRenderer.createTarget(new int[Global.WIDTH * Global.HEIGHT], Global.WIDTH, Global.HEIGHT);
+			rasterizer = new BandedRasterizer(bandedRenderer, 4);
+		}
+		int[] copied = ((DataBufferInt) copiedImage.getRaster().getDataBuffer()).getData();
+		int[] direct = ((DataBufferInt) directImage.getRaster().getDataBuffer()).getData();
+		
+		area.draw(copyingRenderer);
+		for (int i = 0; i < copied.length; i++) {
+			copied[i] = copyingRenderer.getPixel(i);
+		}
+		area.draw(directRenderer);
+		drawList.clear();
+		recorder.record(drawList);
+		area.draw(recorder);
+		recorder.record(null);
+		drawList.replay(replayRenderer);
+		rasterizer.replay(drawList);
+		
+		for (int i = 0; i < copied.length; i++) {
+			if (copied[i] != direct[i] || replayRenderer.getPixel(i) != direct[i] || bandedRenderer.getPixel(i) != direct[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Run the simulation while checking how many bytes each tick allocates.
+	 * Nothing is printed until the end, as printing would allocate too.
+	 * @param ticks The number of ticks to run
+	 * @param budget The most bytes a tick may allocate
+	 * @return True if no counted tick went over the budget
+	 */
+	public boolean checkBudget(int ticks, long budget) {
+		AllocationTracker.setEnabled(true);
+		int counted = 0;
+		int over = 0;
+		long worst = 0;
+		int worstTick = 0;
+		for (int i = 0; i < ticks && !area.isEnded(); i++) {
+			Level level = area.getLevel();
+			update();
+			if (i < BUDGET_WARMUP || area.getLevel() != level) {
+				continue;
+			}
+			long bytes = AllocationTracker.getLastTickBytes();
+			counted++;
+			if (bytes > budget) {
+				over++;
+			}
+			if (bytes > worst) {
+				worst = bytes;
+				worstTick = tick;
+			}
+		}
+		System.out.println(counted + " ticks checked, " + over + " over the budget of " + budget
+				+ " bytes, worst " + worst + " bytes at tick " + worstTick);
+		return over == 0;
+	}
+	
+	/**
+	 * Get the simulated game area.
+	 * @return The game area
+	 */
+	public GameArea getArea() {
+		return area;
+	}
+	
+	/**
+	 * Get the number of ticks run so far.
+	 * @return The tick count
+	 */
+	public int getTick() {
+		return tick;
+	}
+	
+	/**
+	 * Main method.
+	 * Usage: Simulation [-ticks n] [-script file] [-level path] [-verify n] [-budget bytes] [-audio file] [-music path] [-realtime] [-memory]
+	 * With -verify, every n-th tick is also rendered and checked by verifyFrame().
+	 * With -budget, the bytes allocated by each tick are measured, and the
+	 * run fails if any tick allocates more than the budget. The first
+	 * BUDGET_WARMUP ticks (while the JIT compiles the game) and ticks that
+	 * load a level are not counted.
+	 * With -audio, the mixed audio is written to a WAV file.
+	 * With -music, the music is played in the level and its underruns are
+	 * counted; use -realtime too, as faster ticks use up the music faster
+	 * than it is streamed.
+	 * With -realtime, the ticks are run at the game's tick rate.
+	 * With -memory, the sprite sheets' memory usage is printed instead.
+	 * @param args The command line arguments
+	 * @throws IOException If the script cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		
+		int ticks = 60 * 60;
+		InputScript script = InputScript.soak();
+		String level = null;
+		int verify = 0;
+		long budget = -1;
+		String audio = null;
+		String music = null;
+		boolean realTime = false;
+		
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-memory")) {
+				new Renderer().printMemoryUsage();
+				return;
+			} else if (args[i].equals("-realtime")) {
+				realTime = true;
+			} else if (i + 1 == args.length) {
+				System.err.println("Missing value for option: " + args[i]);
+				System.exit(1);
+			} else if (args[i].equals("-ticks")) {
+				ticks = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-script")) {
+				script = InputScript.load(args[++i]);
+			} else if (args[i].equals("-level")) {
+				level = args[++i];
+			} else if (args[i].equals("-verify")) {
+				verify = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-budget")) {
+				budget = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-audio")) {
+				audio = args[++i];
+			} else if (args[i].equals("-music")) {
+				music = args[++i];
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+		
+		if (audio != null) {
+			AudioMixer.getMixer().setSink(new WavFileSink(audio));
+		}
+		Simulation simulation = new Simulation(script);
+		if (level != null) {
+			simulation.getArea().setLevelPath(level);
+		}
+		simulation.getArea().setMusicPath(music);
+		simulation.setRealTime(realTime);
+		boolean passed = true;
+		if (verify > 0) {
+			int frames = 0;
+			int mismatched = 0;
+			for (int i = 0; i < ticks; i++) {
+				simulation.update();
+				if (i % verify == 0) {
+					frames++;
+					if (!simulation.verifyFrame()) {
+						mismatched++;
+					}
+				}
+			}
+			System.out.println(frames + " frames verified, " + mismatched + " mismatched");
+			passed = mismatched == 0;
+		} else if (budget >= 0) {
+			passed = simulation.checkBudget(ticks, budget);
+		} else {
+			double tps = simulation.run(ticks);
+			System.out.println(simulation.getTick() + " ticks, " + (int) tps + " ticks per second");
+		}
+		if (music != null) {
+			System.out.println(AudioMixer.getMixer().getMusicUnderrunCount() + " music underruns");
+		}
+		AudioMixer.getMixer().close(); // finishes the audio file
+		System.exit(passed ? 0 : 1);
+	}
+}
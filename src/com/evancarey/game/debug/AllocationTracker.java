@@ -0,0 +1,164 @@
+package com.evancarey.game.debug;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import com.evancarey.game.Global;
+
+/**
+ * Measures how many bytes the game allocates per tick, to keep the game
+ * loop free of garbage (and so of GC pauses). It reads the current thread's
+ * allocation counter from the JVM's ThreadMXBean at the start and end of
+ * each profiled phase and of each tick. Only the thread that runs the ticks
+ * is counted: the bytes per tick cover the tick itself, not the frames
+ * drawn between ticks (nor the profiler overlay that shows the counts), so
+ * the figure is the same in game and headless. The phases it times between
+ * ticks are added to the next tick's phase counts, and phases timed on
+ * other threads (the render thread when pipelined) are not counted. The
+ * last tick's counts may be read from any thread. Tracking is on while
+ * enabled or in debug mode, and does nothing on JVMs without the counter.
+ */
+public class AllocationTracker {
+	
+	private static com.sun.management.ThreadMXBean threads;
+	private static boolean enabled = false;
+	/** The thread that runs the ticks, the only one counted (null before the first tick) */
+	private static volatile Thread tickThread = null;
+	
+	/** Allocation counter at the start of each phase (-1 when not started) */
+	private static long[] starts = new long[Profiler.PHASES];
+	/** Bytes allocated by each phase in the current and the last tick */
+	private static long[] phaseBytes = new long[Profiler.PHASES];
+	private static long[] lastPhaseBytes = new long[Profiler.PHASES];
+	
+	/** Allocation counter at the start of the current tick (-1 when not tracking) */
+	private static long tickStart = -1;
+	// the last tick's figures, guarded by the class's lock
+	private static long lastTickBytes = 0;
+	private static long maxTickBytes = 0;
+	private static long totalBytes = 0;
+	private static int ticks = 0;
+	
+	static {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()) {
+				threads.setThreadAllocatedMemoryEnabled(true);
+			} else {
+				threads = null;
+			}
+		}
+		Arrays.fill(starts, -1);
+	}
+	
+	/**
+	 * Turn tracking on or off (it is also on in debug mode).
+	 * @param enabled Whether to track allocations
+	 */
+	public static void setEnabled(boolean enabled) {
+		AllocationTracker.enabled = enabled;
+	}
+	
+	/**
+	 * Check if allocations are being tracked.
+	 * @return True if tracking is on and supported by the JVM
+	 */
+	public static boolean isEnabled() {
+		return (enabled || Global.debug) && threads != null;
+	}
+	
+	/**
+	 * Mark the start of a phase. Called by Profiler.begin().
+	 * @param phase The phase
+	 */
+	static void begin(int phase) {
+		if (Thread.currentThread() != tickThread) {
+			return;
+		}
+		starts[phase] = isEnabled() ? threads.getCurrentThreadAllocatedBytes() : -1;
+	}
+	
+	/**
+	 * Mark the end of a phase. Called by Profiler.end().
+	 * @param phase The phase
+	 */
+	static void end(int phase) {
+		if (Thread.currentThread() != tickThread) {
+			return;
+		}
+		if (starts[phase] != -1 && isEnabled()) {
+			phaseBytes[phase] += threads.getCurrentThreadAllocatedBytes() - starts[phase];
+		}
+		starts[phase] = -1;
+	}
+	
+	/**
+	 * Mark the start of a tick. From then on, only the calling thread is
+	 * counted.
+	 */
+	public static void beginTick() {
+		tickThread = Thread.currentThread();
+		tickStart = isEnabled() ? threads.getCurrentThreadAllocatedBytes() : -1;
+	}
+	
+	/**
+	 * Mark the end of a tick, recording the bytes allocated since it began.
+	 */
+	public static void endTick() {
+		long bytes = tickStart != -1 && isEnabled() ? threads.getCurrentThreadAllocatedBytes() - tickStart : -1;
+		synchronized (AllocationTracker.class) {
+			if (bytes != -1) {
+				lastTickBytes = bytes;
+				maxTickBytes = Math.max(maxTickBytes, lastTickBytes);
+				totalBytes += lastTickBytes;
+				ticks++;
+			}
+			System.arraycopy(phaseBytes, 0, lastPhaseBytes, 0, phaseBytes.length);
+		}
+		Arrays.fill(phaseBytes, 0);
+		tickStart = -1;
+	}
+	
+	/**
+	 * Get the bytes allocated in the last tick.
+	 * @return The bytes allocated
+	 */
+	public static synchronized long getLastTickBytes() {
+		return lastTickBytes;
+	}
+	
+	/**
+	 * Get the most bytes allocated in one tick since the stats were reset.
+	 * @return The bytes allocated
+	 */
+	public static synchronized long getMaxTickBytes() {
+		return maxTickBytes;
+	}
+	
+	/**
+	 * Get the average bytes allocated per tick since the stats were reset.
+	 * @return The bytes allocated
+	 */
+	public static synchronized long getAverageTickBytes() {
+		return ticks == 0 ? 0 : totalBytes / ticks;
+	}
+	
+	/**
+	 * Get the bytes a phase allocated in the last tick.
+	 * @param phase The phase
+	 * @return The bytes allocated
+	 */
+	public static synchronized long getPhaseBytes(int phase) {
+		return lastPhaseBytes[phase];
+	}
+	
+	/**
+	 * Clear the per-tick statistics.
+	 */
+	public static synchronized void resetStats() {
+		maxTickBytes = 0;
+		totalBytes = 0;
+		ticks = 0;
+	}
+}
@@ -0,0 +1,53 @@
+package com.evancarey.game.debug;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Tracks whether a Flight Recorder recording is running, so the game's
+ * events are only created while one is. The JIT cannot always remove an
+ * unused event object from a large method, so creating events regardless
+ * would allocate every tick.
+ */
+public class FlightRecording {
+	
+	private static volatile boolean active = false;
+	
+	static {
+		try {
+			FlightRecorder.addListener(new FlightRecorderListener() {
+				@Override
+				public void recorderInitialized(FlightRecorder recorder) {
+					update(recorder);
+				}
+				
+				@Override
+				public void recordingStateChanged(Recording recording) {
+					update(FlightRecorder.getFlightRecorder());
+				}
+			});
+		} catch (Throwable e) { // Flight Recorder not available
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Check if a recording is running.
+	 * @return True if events may be recorded
+	 */
+	public static boolean isActive() {
+		return active;
+	}
+	
+	private static void update(FlightRecorder recorder) {
+		boolean running = false;
+		for (Recording recording : recorder.getRecordings()) {
+			if (recording.getState() == RecordingState.RUNNING) {
+				running = true;
+			}
+		}
+		active = running;
+	}
+}
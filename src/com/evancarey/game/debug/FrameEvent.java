@@ -0,0 +1,48 @@
+package com.evancarey.game.debug;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event for one rendered frame (Game.render()) */
+@Name("com.evancarey.game.Frame")
+@Label("Game Frame")
+@Category("Platformer")
+@Description("Drawing one frame and showing it on screen")
+public class FrameEvent extends Event {
+	
+	@Label("Visible Tiles")
+	@Description("Non-empty tiles on screen")
+	public int visibleTiles;
+	
+	@Label("Visible Entities")
+	@Description("Entities near enough to the screen to be drawn")
+	public int visibleEntities;
+	
+	@Label("Width")
+	@Description("Width of the resolution the frame was drawn at")
+	public int width;
+	
+	@Label("Height")
+	@Description("Height of the resolution the frame was drawn at")
+	public int height;
+	
+	@Label("Interpolation")
+	@Description("How far between the last two ticks the frame was drawn")
+	public double interpolation;
+	
+	/**
+	 * Start timing a frame.
+	 * @return The started event, or null if no recording is running
+	 */
+	public static FrameEvent start() {
+		if (!FlightRecording.isActive()) {
+			return null;
+		}
+		FrameEvent event = new FrameEvent();
+		event.begin();
+		return event;
+	}
+}
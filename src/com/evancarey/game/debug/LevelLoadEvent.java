@@ -0,0 +1,42 @@
+package com.evancarey.game.debug;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event for loading and building a level */
+@Name("com.evancarey.game.LevelLoad")
+@Label("Level Load")
+@Category("Platformer")
+@Description("Constructing a level from a file")
+public class LevelLoadEvent extends Event {
+	
+	@Label("Path")
+	public String path;
+	
+	@Label("Width")
+	@Description("Width of the level in tiles")
+	public int width;
+	
+	@Label("Height")
+	@Description("Height of the level in tiles")
+	public int height;
+	
+	@Label("Entities")
+	public int entityCount;
+	
+	/**
+	 * Start timing loading a level.
+	 * @return The started event, or null if no recording is running
+	 */
+	public static LevelLoadEvent start() {
+		if (!FlightRecording.isActive()) {
+			return null;
+		}
+		LevelLoadEvent event = new LevelLoadEvent();
+		event.begin();
+		return event;
+	}
+}
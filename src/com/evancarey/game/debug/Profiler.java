@@ -0,0 +1,215 @@
+package com.evancarey.game.debug;
+
+import java.util.Arrays;
+
+import com.evancarey.game.Global;
+import com.evancarey.game.gfx.Renderer;
+
+/**
+ * Times the phases of the game loop.
+ * Each phase keeps the durations of its last HISTORY runs in a ring buffer,
+ * so percentiles show the occasional slow tick or frame that an average
+ * hides. Timing is always on (it costs two System.nanoTime() calls per
+ * phase); the overlay with the frame time graph is drawn in debug mode.
+ * A profiler must only be used by one thread. When pipelined, the render
+ * thread times its phases with its own profiler, and the update thread's
+ * timings are copied to it with the frame snapshots (see copyTo()).
+ */
+public class Profiler {
+	
+	// Phases
+	public static final int INPUT = 0;
+	public static final int LEVEL = 1;
+	public static final int GUI = 2;
+	public static final int DRAW = 3;
+	public static final int REPLAY = 4;
+	public static final int UPLOAD = 5;
+	public static final int SHOW = 6;
+	/** The time from the end of one frame to the end of the next */
+	public static final int FRAME = 7;
+	
+	/** The number of phases */
+	public static final int PHASES = 8;
+	
+	private static final String[] NAMES = {"input", "level", "gui", "draw", "replay", "upload", "show", "frame"};
+	
+	/** The number of runs remembered for each phase */
+	private static final int HISTORY = 240;
+	
+	/** Height of the graph in pixels, and how many pixels a millisecond is */
+	private static final int GRAPH_HEIGHT = 50;
+	private static final int PIXELS_PER_MS = 2;
+	
+	/** The time a frame should take, which the graph marks */
+	private static long targetFrameNanos = 1000000000L / Global.TICK_RATE;
+	
+	private long[][] durations;
+	/** The number of runs of each phase so far */
+	private int[] counts;
+	private long[] starts;
+	private long lastFrame;
+	
+	/** Scratch array the durations are sorted in to find percentiles */
+	private long[] sorted;
+	
+	/**
+	 * Construct a profiler with no phases run yet.
+	 */
+	public Profiler() {
+		durations = new long[PHASES][HISTORY];
+		counts = new int[PHASES];
+		starts = new long[PHASES];
+		lastFrame = 0;
+		sorted = new long[HISTORY];
+	}
+	
+	/**
+	 * Mark the start of a phase.
+	 * @param phase The phase
+	 */
+	public void begin(int phase) {
+		AllocationTracker.begin(phase);
+		starts[phase] = System.nanoTime();
+	}
+	
+	/**
+	 * Mark the end of a phase and record how long it took.
+	 * @param phase The phase
+	 */
+	public void end(int phase) {
+		record(phase, System.nanoTime() - starts[phase]);
+		AllocationTracker.end(phase);
+	}
+	
+	/**
+	 * Mark the end of a frame, recording the time since the last one.
+	 */
+	public void endFrame() {
+		long now = System.nanoTime();
+		if (lastFrame != 0) {
+			record(FRAME, now - lastFrame);
+		}
+		lastFrame = now;
+	}
+	
+	private void record(int phase, long duration) {
+		durations[phase][counts[phase] % HISTORY] = duration;
+		counts[phase]++;
+	}
+	
+	/**
+	 * Copy the durations of the phases that have run to another profiler,
+	 * e.g. so the overlay can be drawn with the phases of two threads.
+	 * Phases that have not run are left as they are in the other profiler.
+	 * @param other The profiler to copy to
+	 */
+	public void copyTo(Profiler other) {
+		for (int phase = 0; phase < PHASES; phase++) {
+			if (counts[phase] != 0) {
+				System.arraycopy(durations[phase], 0, other.durations[phase], 0, HISTORY);
+				other.counts[phase] = counts[phase];
+			}
+		}
+	}
+	
+	/**
+	 * Set the time a frame should take, e.g. from the frame pacer. Frames
+	 * slower than this are marked on the graph. Must be set before the game
+	 * starts.
+	 * @param nanos The target frame time in nanoseconds
+	 */
+	public static void setTargetFrameNanos(long nanos) {
+		targetFrameNanos = nanos;
+	}
+	
+	/**
+	 * Get a percentile of a phase's recent durations.
+	 * @param phase The phase
+	 * @param percentile The percentile (0 to 100)
+	 * @return The duration in nanoseconds (0 if the phase has not run)
+	 */
+	public long getPercentile(int phase, int percentile) {
+		int n = Math.min(counts[phase], HISTORY);
+		if (n == 0) {
+			return 0;
+		}
+		System.arraycopy(durations[phase], 0, sorted, 0, n);
+		Arrays.sort(sorted, 0, n);
+		return sorted[Math.min(n * percentile / 100, n - 1)];
+	}
+	
+	/**
+	 * Draw the profiler overlay: a table of the 50th, 95th and 99th percentile
+	 * and the maximum of each phase that has run (in milliseconds), and a
+	 * graph of recent frame times with a line at the target frame time (see
+	 * setTargetFrameNanos()). While allocations are tracked, the bytes each
+	 * phase allocated in the last tick and the bytes per tick are shown too.
+	 * @param renderer The renderer to draw the overlay with
+	 */
+	public void draw(Renderer renderer) {
+		// table in the top right corner, clear of the GUI's labels
+		boolean allocations = AllocationTracker.isEnabled();
+		int rows = allocations ? 2 : 1;
+		for (int phase = 0; phase < PHASES; phase++) {
+			if (counts[phase] != 0) {
+				rows++;
+			}
+		}
+		int columns = allocations ? 37 : 30;
+		int x = renderer.getWidth() - columns * 6 - 2;
+		int y = 2;
+		renderer.drawRect(x - 2, 0, columns * 6 + 4, rows * 6 + 3, 0x000000, 0, 0, false);
+		renderer.drawText(pad("phase", 6) + "   p50   p95   p99   max" + (allocations ? "  bytes" : ""), x, y, 0xffff00);
+		for (int phase = 0; phase < PHASES; phase++) {
+			if (counts[phase] == 0) {
+				continue;
+			}
+			y += 6;
+			renderer.drawText(pad(NAMES[phase], 6) + formatMs(getPercentile(phase, 50))
+					+ formatMs(getPercentile(phase, 95)) + formatMs(getPercentile(phase, 99))
+					+ formatMs(getPercentile(phase, 100))
+					+ (allocations && phase != FRAME ? padLeft(Long.toString(AllocationTracker.getPhaseBytes(phase)), 7) : ""), x, y, 0xffffff);
+		}
+		if (allocations) {
+			y += 6;
+			renderer.drawText("bytes/tick " + AllocationTracker.getLastTickBytes() + " avg "
+					+ AllocationTracker.getAverageTickBytes() + " max " + AllocationTracker.getMaxTickBytes(), x, y, 0xffff00);
+		}
+		
+		// frame time graph, newest frame on the right
+		int n = Math.min(counts[FRAME], Math.min(HISTORY, renderer.getWidth() - 4));
+		int bottom = renderer.getHeight() - 2;
+		renderer.drawRect(2, bottom - GRAPH_HEIGHT, n, GRAPH_HEIGHT, 0x000000, 0, 0, false);
+		for (int i = 0; i < n; i++) {
+			long duration = durations[FRAME][(counts[FRAME] - n + i) % HISTORY];
+			int height = (int) Math.min(duration * PIXELS_PER_MS / 1000000, GRAPH_HEIGHT);
+			int color = duration > targetFrameNanos + 1000000 ? 0xff4040 : 0x40ff40;
+			renderer.drawRect(2 + i, bottom - height, 1, height, color, 0, 0, false);
+		}
+		int target = (int) Math.min(targetFrameNanos * PIXELS_PER_MS / 1000000, GRAPH_HEIGHT);
+		renderer.drawRect(2, bottom - target, n, 1, 0xffff00, 0, 0, false);
+	}
+	
+	/**
+	 * Format a duration in milliseconds, padded to 6 characters.
+	 * @param nanos The duration in nanoseconds
+	 * @return The formatted duration
+	 */
+	private static String formatMs(long nanos) {
+		long hundredths = nanos / 10000;
+		String text = (hundredths / 100) + "." + (hundredths % 100 < 10 ? "0" : "") + (hundredths % 100);
+		return padLeft(text, 6);
+	}
+	
+	private static String padLeft(String text, int length) {
+		return pad("", length - text.length()) + text;
+	}
+	
+	private static String pad(String text, int length) {
+		StringBuilder builder = new StringBuilder(text);
+		while (builder.length() < length) {
+			builder.append(' ');
+		}
+		return builder.toString();
+	}
+}
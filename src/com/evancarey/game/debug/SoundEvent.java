@@ -0,0 +1,32 @@
+package com.evancarey.game.debug;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event for starting a sound (SoundQueue.flush()) */
+@Name("com.evancarey.game.Sound")
+@Label("Sound Played")
+@Category("Platformer")
+@Description("Starting to play a sound effect")
+public class SoundEvent extends Event {
+	
+	@Label("Sound")
+	@Description("Path of the sound file")
+	public String sound;
+	
+	/**
+	 * Start timing playing a sound.
+	 * @return The started event, or null if no recording is running
+	 */
+	public static SoundEvent start() {
+		if (!FlightRecording.isActive()) {
+			return null;
+		}
+		SoundEvent event = new SoundEvent();
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,36 @@
+package com.evancarey.game.debug;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event for one game tick (Game.update()) */
+@Name("com.evancarey.game.Tick")
+@Label("Game Tick")
+@Category("Platformer")
+@Description("One update of the game logic")
+public class TickEvent extends Event {
+	
+	@Label("Tick Lag")
+	@Description("Ticks still waiting to run when this one started")
+	public double tickLag;
+	
+	@Label("Entities")
+	@Description("Entities in the level (0 outside a level)")
+	public int entityCount;
+	
+	/**
+	 * Start timing a tick.
+	 * @return The started event, or null if no recording is running
+	 */
+	public static TickEvent start() {
+		if (!FlightRecording.isActive()) {
+			return null;
+		}
+		TickEvent event = new TickEvent();
+		event.begin();
+		return event;
+	}
+}
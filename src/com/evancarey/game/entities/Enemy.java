@@ -1,7 +1,7 @@
 package com.evancarey.game.entities;
 
+import com.evancarey.game.FrameSnapshot;
 import com.evancarey.game.GameArea;
-import com.evancarey.game.gfx.Renderer;
 
 /** Not implemented yet */
 public class Enemy extends Entity {
@@ -24,7 +24,7 @@ public class Enemy extends Entity {
 	}
 
 	@Override
-	public void draw(Renderer renderer, int xOffset, int yOffset) {
+	public void capture(FrameSnapshot snapshot) {
 		// TODO Auto-generated method stub
 		
 	}
@@ -1,17 +1,19 @@
 package com.evancarey.game.entities;
 
-import java.awt.Rectangle;
 import java.util.List;
 
+import com.evancarey.game.FrameSnapshot;
 import com.evancarey.game.GameArea;
 import com.evancarey.game.Global;
-import com.evancarey.game.gfx.Renderer;
-import com.evancarey.game.level.tiles.Tile;
+import com.evancarey.game.gfx.SpriteBatch;
+import com.evancarey.game.level.Level;
 
 public class Entity {
 	
 	// position
 	protected double x, y;
+	// position at the start of the tick, for drawing between ticks
+	protected double prevX, prevY;
 	// movement
 	protected double dx, dy;
 	// collision
@@ -19,12 +21,19 @@ public class Entity {
 	
 	protected boolean alive;
 	
+	/** The entity's cell in the level's EntityGrid (-1 when not in a grid) */
+	int gridCell;
+	/** The order the entity was added to the grid in */
+	int gridOrder;
+	
 	/**
 	 * Construct the entity.
 	 */
 	public Entity() {
 		x = 0.0;
 		y = 0.0;
+		prevX = 0.0;
+		prevY = 0.0;
 		dx = 0.0;
 		dy = 0.0;
 		cx0 = 0;
@@ -33,6 +42,8 @@ public class Entity {
 		cy1 = 0;
 		
 		alive = true;
+		gridCell = -1;
+		gridOrder = 0;
 	}
 	
 	/**
@@ -44,17 +55,26 @@ public class Entity {
 	}
 	
 	/**
-	 * Draw the entity.
-	 * @param renderer The renderer responsible for drawing the entity's sprite
-	 * @param xOffset The relative x position to draw the entity's sprite
-	 * @param yOffset The relative y position to draw the entity's sprite
+	 * Add the entity to a frame snapshot, to be drawn between its previous
+	 * and current position.
+	 * @param snapshot The snapshot the entity's sprite is added to
 	 */
-	public void draw(Renderer renderer, int xOffset, int yOffset) {
+	public void capture(FrameSnapshot snapshot) {
 		if (Global.debug) {
-			renderer.drawRect((int)x + cx0, (int)y + cy0, cx1 - cx0, cy1 - cy0, 0xff0000, xOffset, yOffset, true);
+			snapshot.addRect(SpriteBatch.LAYER_DEBUG, prevX, prevY, x, y, cx0, cy0, cx1 - cx0, cy1 - cy0, 0xff0000, true);
 		}
 	}
 	
+	/**
+	 * Remember the entity's current position as its previous position.
+	 * Called at the start of every tick, and after the entity jumps to a
+	 * new position so it is not drawn sliding there.
+	 */
+	public void savePosition() {
+		prevX = x;
+		prevY = y;
+	}
+	
 	/**
 	 * Move the entity.
 	 * @param area The GameArea the entity is in.
@@ -76,70 +96,103 @@ public class Entity {
 	 * @param direction The direction to move the box (0 for x, 1 for y)
 	 */
 	protected void moveContact(GameArea area, int direction) {
-		Tile[] tiles = area.getLevel().getTiles();
-		for (int i = 0; i < tiles.length; i++) {
-			Tile tile = tiles[i];
-			if (!tile.isSolid()) {
-				continue;
-			}
-			Rectangle bounds = getBounds();
-			Rectangle tileBounds = getTileBounds(tile);
-			
-			if (bounds.intersects(tileBounds)) {
-				if (direction == 0) {
-					x += getDepth(bounds, tileBounds, 0);
-					dx = 0.0;
+		Level level = area.getLevel();
+		int width = cx1 - cx0;
+		int height = cy1 - cy0;
+		if (width <= 0 || height <= 0) {
+			return; // no collision bounds
+		}
+		
+		// Only the tiles around the bounds are tested, in the same order as the
+		// level's tile array. Resolving a contact moves the entity by at most a
+		// tile, so one extra tile on each side covers everything it can touch.
+		int tx0 = Math.max((((int) x + cx0) >> 4) - 1, 0);
+		int ty0 = Math.max((((int) y + cy0) >> 4) - 1, 0);
+		int tx1 = Math.min((((int) x + cx1 - 1) >> 4) + 1, level.getWidth() - 1);
+		int ty1 = Math.min((((int) y + cy1 - 1) >> 4) + 1, level.getHeight() - 1);
+		for (int ty = ty0; ty <= ty1; ty++) {
+			for (int tx = tx0; tx <= tx1; tx++) {
+				if (!level.isSolid(tx, ty)) {
+					continue;
 				}
-				if (direction == 1) {
-					y += getDepth(bounds, tileBounds, 1);
-					dy = 0.0;
+				int bx = (int) x + cx0;
+				int by = (int) y + cy0;
+				if (intersects(bx, by, width, height, tx << 4, ty << 4, 16, 16)) {
+					if (direction == 0) {
+						resolveContact(0, getDepth(bx, width, tx << 4, 16));
+					}
+					if (direction == 1) {
+						resolveContact(1, getDepth(by, height, ty << 4, 16));
+					}
 				}
 			}
-			
 		}
 	}
 	
 	/**
-	 * Get the entity's bounds
-	 * @return The entity's collision bounds
+	 * Push the entity out of a solid tile it ran into.
+	 * @param direction The direction the entity was moving (0 for x, 1 for y)
+	 * @param depth How far to move the entity to get it out of the tile
+	 */
+	protected void resolveContact(int direction, int depth) {
+		if (direction == 0) {
+			x += depth;
+			dx = 0.0;
+		}
+		if (direction == 1) {
+			y += depth;
+			dy = 0.0;
+		}
+	}
+	
+	/**
+	 * Check if the entity's bounds, moved by an offset, touch any solid tile.
+	 * @param level The level the entity is in
+	 * @param xOffset The offset added to the entity's x position
+	 * @param yOffset The offset added to the entity's y position
+	 * @return True if a solid tile intersects the moved bounds
 	 */
-	protected Rectangle getBounds() {
-		return new Rectangle((int) x + cx0, (int) y + cy0, cx1 - cx0, cy1 - cy0);
+	protected boolean touchesSolidTile(Level level, int xOffset, int yOffset) {
+		int width = cx1 - cx0;
+		int height = cy1 - cy0;
+		if (width <= 0 || height <= 0) {
+			return false;
+		}
+		int bx = (int) (x + xOffset) + cx0;
+		int by = (int) (y + yOffset) + cy0;
+		int tx1 = Math.min((bx + width - 1) >> 4, level.getWidth() - 1);
+		int ty1 = Math.min((by + height - 1) >> 4, level.getHeight() - 1);
+		for (int ty = Math.max(by >> 4, 0); ty <= ty1; ty++) {
+			for (int tx = Math.max(bx >> 4, 0); tx <= tx1; tx++) {
+				if (level.isSolid(tx, ty)) {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 	
 	/**
-	 * Get the tile's bounds
-	 * @param tile The tile being tested
-	 * @return The tile's bounds
+	 * Check if two rectangles overlap (touching edges do not count).
+	 * @return True if they overlap
 	 */
-	protected Rectangle getTileBounds(Tile tile) {
-		return new Rectangle(tile.getX() << 4, tile.getY() << 4, 16, 16);
+	protected static boolean intersects(int x0, int y0, int w0, int h0, int x1, int y1, int w1, int h1) {
+		return x0 < x1 + w1 && x1 < x0 + w0 && y0 < y1 + h1 && y1 < y0 + h0;
 	}
 	
 	/**
-	 * Get the distance between two bounds
-	 * @param rect0 The first rectangle bounds
-	 * @param rect1 The second rectangle bounds
-	 * @param direction The direction being tested (0 for x, 1 for y)
-	 * @return The distance between them
+	 * Get the distance needed to separate two overlapping ranges along one axis.
+	 * @param pos0 The start of the first range (e.g. the entity's x bound)
+	 * @param size0 The length of the first range
+	 * @param pos1 The start of the second range (e.g. the tile's x position)
+	 * @param size1 The length of the second range
+	 * @return The distance to move the first range by
 	 */
-	protected int getDepth(Rectangle rect0, Rectangle rect1, int direction) {
-		int half0 = 0;
-		int half1 = 0;
-		int center0 = 0;
-		int center1 = 0;
-		if (direction == 0) {
-			half0 = rect0.width / 2;
-			half1 = rect1.width / 2;
-			center0 = rect0.x + half0;
-			center1 = rect1.x + half1;
-		}
-		if (direction == 1) {
-			half0 = rect0.height / 2;
-			half1 = rect1.height / 2;
-			center0 = rect0.y + half0;
-			center1 = rect1.y + half1;
-		}
+	protected int getDepth(int pos0, int size0, int pos1, int size1) {
+		int half0 = size0 / 2;
+		int half1 = size1 / 2;
+		int center0 = pos0 + half0;
+		int center1 = pos1 + half1;
 		int distance = center0 - center1;
 		int minDistance = half0 + half1;
 		if (Math.abs(distance) > minDistance) {
@@ -153,7 +206,7 @@ public class Entity {
 	 * @param area The GameArea the entity is in.
 	 */
 	protected void checkEntityCollision(GameArea area) {
-		List<Entity> entities = area.getLevel().getEntities();
+		List<Entity> entities = area.getLevel().getNearbyEntities(x + cx0, y + cy0, x + cx1, y + cy1);
 		for (int i = 0; i < entities.size(); i++) {
 			Entity entity = entities.get(i);
 			if (entity == null) {
@@ -197,6 +250,22 @@ public class Entity {
 		return y;
 	}
 	
+	/**
+	 * Get the x position of the entity at the start of the tick.
+	 * @return The previous x position
+	 */
+	public double getPrevX() {
+		return prevX;
+	}
+	
+	/**
+	 * Get the y position of the entity at the start of the tick.
+	 * @return The previous y position
+	 */
+	public double getPrevY() {
+		return prevY;
+	}
+	
 	/**
 	 * Check if the entity is alive.
 	 * @return True if it's alive
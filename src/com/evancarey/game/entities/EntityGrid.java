@@ -0,0 +1,165 @@
+package com.evancarey.game.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A uniform grid of the entities in a level, used as a broadphase so that
+ * overlap queries only look at entities near the area being tested.
+ * Each entity is filed under the cell holding the top-left corner of its
+ * collision bounds, so entities must be no larger than a cell. Entities
+ * outside the level are filed under the nearest edge cell.
+ */
+public class EntityGrid {
+	
+	/** The width and height of a cell in pixels */
+	public static final int CELL_SIZE = 64;
+	/** Entities each cell has room for up front, so filling a cell later does not allocate */
+	private static final int CELL_CAPACITY = 8;
+	
+	private int cellsX;
+	private int cellsY;
+	private List<List<Entity>> cells;
+	
+	/** Counter used to remember the order entities were added in */
+	private int order;
+	
+	/**
+	 * Construct an empty grid.
+	 * @param width The width of the level in pixels
+	 * @param height The height of the level in pixels
+	 */
+	public EntityGrid(int width, int height) {
+		cellsX = Math.max((width + CELL_SIZE - 1) / CELL_SIZE, 1);
+		cellsY = Math.max((height + CELL_SIZE - 1) / CELL_SIZE, 1);
+		cells = new ArrayList<List<Entity>>(cellsX * cellsY);
+		for (int i = 0; i < cellsX * cellsY; i++) {
+			cells.add(new ArrayList<Entity>(CELL_CAPACITY));
+		}
+		order = 0;
+	}
+	
+	/**
+	 * Add an entity to the grid.
+	 * @param entity The entity to add
+	 */
+	public void add(Entity entity) {
+		entity.gridOrder = order++;
+		entity.gridCell = getCell(entity.x + entity.cx0, entity.y + entity.cy0);
+		cells.get(entity.gridCell).add(entity);
+	}
+	
+	/**
+	 * Remove an entity from the grid.
+	 * @param entity The entity to remove
+	 */
+	public void remove(Entity entity) {
+		if (entity.gridCell != -1) {
+			removeFrom(cells.get(entity.gridCell), entity);
+			entity.gridCell = -1;
+		}
+	}
+	
+	/**
+	 * Move an entity to the cell matching its current position.
+	 * Must be called after an entity moves.
+	 * @param entity The entity that may have moved
+	 */
+	public void update(Entity entity) {
+		if (entity.gridCell == -1) {
+			return;
+		}
+		int cell = getCell(entity.x + entity.cx0, entity.y + entity.cy0);
+		if (cell != entity.gridCell) {
+			removeFrom(cells.get(entity.gridCell), entity);
+			cells.get(cell).add(entity);
+			entity.gridCell = cell;
+		}
+	}
+	
+	/**
+	 * Find the entities that might overlap an area. The results are only
+	 * candidates (their bounds still need testing), listed in the order the
+	 * entities were added to the grid.
+	 * @param x0 The left of the area
+	 * @param y0 The top of the area
+	 * @param x1 The right of the area
+	 * @param y1 The bottom of the area
+	 * @param result The list to fill (it is cleared first)
+	 */
+	public void query(double x0, double y0, double x1, double y1, List<Entity> result) {
+		queryUnordered(x0, y0, x1, y1, result);
+		
+		// insertion sort back into the order the entities were added (collision queries are short)
+		for (int i = 1; i < result.size(); i++) {
+			Entity entity = result.get(i);
+			int j = i - 1;
+			while (j >= 0 && result.get(j).gridOrder > entity.gridOrder) {
+				result.set(j + 1, result.get(j));
+				j--;
+			}
+			result.set(j + 1, entity);
+		}
+	}
+	
+	/**
+	 * Find the entities that might overlap an area, in no particular order.
+	 * Meant for large areas such as the screen, where sorting would cost
+	 * more than the broadphase saves and the order does not matter (drawing
+	 * is ordered by layer, see SpriteBatch).
+	 * @param x0 The left of the area
+	 * @param y0 The top of the area
+	 * @param x1 The right of the area
+	 * @param y1 The bottom of the area
+	 * @param result The list to fill (it is cleared first)
+	 */
+	public void queryUnordered(double x0, double y0, double x1, double y1, List<Entity> result) {
+		result.clear();
+		// an entity whose corner is up to a cell before the area can still reach into it
+		int cx0 = Math.max(getCellX(x0) - 1, 0);
+		int cy0 = Math.max(getCellY(y0) - 1, 0);
+		int cx1 = getCellX(x1);
+		int cy1 = getCellY(y1);
+		for (int cy = cy0; cy <= cy1; cy++) {
+			for (int cx = cx0; cx <= cx1; cx++) {
+				List<Entity> cell = cells.get(cx + cy * cellsX);
+				for (int i = 0; i < cell.size(); i++) {
+					result.add(cell.get(i));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Get the index of the cell containing a point.
+	 * @param x The x position
+	 * @param y The y position
+	 * @return The cell index
+	 */
+	private int getCell(double x, double y) {
+		return getCellX(x) + getCellY(y) * cellsX;
+	}
+	
+	private int getCellX(double x) {
+		return Math.min(Math.max((int) Math.floor(x / CELL_SIZE), 0), cellsX - 1);
+	}
+	
+	private int getCellY(double y) {
+		return Math.min(Math.max((int) Math.floor(y / CELL_SIZE), 0), cellsY - 1);
+	}
+	
+	/**
+	 * Remove an entity from a cell by swapping it with the cell's last entity.
+	 * @param cell The cell
+	 * @param entity The entity to remove
+	 */
+	private static void removeFrom(List<Entity> cell, Entity entity) {
+		for (int i = 0; i < cell.size(); i++) {
+			if (cell.get(i) == entity) {
+				cell.set(i, cell.get(cell.size() - 1));
+				cell.remove(cell.size() - 1);
+				return;
+			}
+		}
+	}
+}
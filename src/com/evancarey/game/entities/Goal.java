@@ -1,7 +1,8 @@
 package com.evancarey.game.entities;
 
+import com.evancarey.game.FrameSnapshot;
 import com.evancarey.game.GameArea;
-import com.evancarey.game.gfx.Renderer;
+import com.evancarey.game.gfx.SpriteBatch;
 
 /** An entity that represent the end of a level */
 public class Goal extends Entity {
@@ -35,15 +36,13 @@ public class Goal extends Entity {
 	}
 
 	/**
-	 * Draw the goal sprite
-	 * @param renderer The renderer responsible for drawing the sprite
-	 * @param xOffset The relative x position to draw the goal sprite
-	 * @param yOffset The relative y position to draw the goal sprite
+	 * Add the goal sprite to a frame snapshot
+	 * @param snapshot The snapshot the goal sprite is added to
 	 */
 	@Override
-	public void draw(Renderer renderer, int xOffset, int yOffset) {
-		renderer.drawSprite((int) x, (int) y, 0, 64, 16, 16, xOffset, yOffset);
-		super.draw(renderer, xOffset, yOffset);
+	public void capture(FrameSnapshot snapshot) {
+		snapshot.addSprite(SpriteBatch.LAYER_ENTITIES, prevX, prevY, x, y, 0, 64, 16, 16);
+		super.capture(snapshot);
 	}
 
 	@Override
@@ -1,7 +1,8 @@
 package com.evancarey.game.entities;
 
+import com.evancarey.game.FrameSnapshot;
 import com.evancarey.game.GameArea;
-import com.evancarey.game.gfx.Renderer;
+import com.evancarey.game.gfx.SpriteBatch;
 import com.evancarey.game.sound.Sound;
 
 /** Not yet implemented, but will represent an item that the player can interact with */
@@ -31,11 +32,11 @@ public class Item extends Entity {
 	}
 
 	@Override
-	public void draw(Renderer renderer, int xOffset, int yOffset) {
+	public void capture(FrameSnapshot snapshot) {
 		if (alive) {
-			renderer.drawSprite((int) x, (int) y, 0, 32, 16, 16, xOffset, yOffset);
+			snapshot.addSprite(SpriteBatch.LAYER_ITEMS, prevX, prevY, x, y, 0, 32, 16, 16);
 		}
-		super.draw(renderer, xOffset, yOffset);
+		super.capture(snapshot);
 	}
 
 }
\ No newline at end of file
@@ -1,13 +1,12 @@
 package com.evancarey.game.entities;
 
-import java.awt.Rectangle;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.evancarey.game.FrameSnapshot;
 import com.evancarey.game.GameArea;
 import com.evancarey.game.InputHandler;
-import com.evancarey.game.gfx.Renderer;
-import com.evancarey.game.level.tiles.Tile;
+import com.evancarey.game.gfx.SpriteBatch;
 import com.evancarey.game.sound.Sound;
 
 /** The player entity */
@@ -118,55 +117,22 @@ public class Player extends Entity {
 	/**
 	 * Check if player entity is on the ground.
 	 * @param area The GameArea the entity is in
-	 * @return True if entity is on the ground (i.e intersecting with a solid tile)
+	 * @return True if entity is on the ground (i.e. a solid tile is right below it)
 	 */
 	private boolean isOnGround(GameArea area) {
-		Tile[] tiles = area.getLevel().getTiles();
-		for (int i = 0; i < tiles.length; i++) {
-			Tile tile = tiles[i];
-			if (!tile.isSolid()) {
-				continue;
-			}
-			y += 1;
-			Rectangle bounds = getBounds();
-			y -= 1;
-			Rectangle tileBounds = getTileBounds(tile);
-			if (bounds.intersects(tileBounds)) {
-				return true;
-			}
-		}
-		return false;
+		return touchesSolidTile(area.getLevel(), 0, 1);
 	}
 	
 	/**
-	 * Move the player's collision bounds
-	 * @param area The GameArea the player entity is in.
-	 * @param direction The direction to move the box (0 for x, 1 for y)
+	 * Push the player out of a solid tile, landing it if it was falling.
+	 * @param direction The direction the player was moving (0 for x, 1 for y)
+	 * @param depth How far to move the player to get it out of the tile
 	 */
 	@Override
-	protected void moveContact(GameArea area, int direction) {
-		Tile[] tiles = area.getLevel().getTiles();
-		for (int i = 0; i < tiles.length; i++) {
-			Tile tile = tiles[i];
-			if (!tile.isSolid()) {
-				continue;
-			}
-			Rectangle bounds = getBounds();
-			Rectangle tileBounds = getTileBounds(tile);
-			if (bounds.intersects(tileBounds)) {
-				if (direction == 0) {
-					x += getDepth(bounds, tileBounds, 0);
-					dx = 0.0;
-				}
-				if (direction == 1) {
-					int yDepth = getDepth(bounds, tileBounds, 1);
-					y += yDepth;
-					if (yDepth < 0) {
-						onGround = true;
-					}
-					dy = 0.0;
-				}
-			}
+	protected void resolveContact(int direction, int depth) {
+		super.resolveContact(direction, depth);
+		if (direction == 1 && depth < 0) {
+			onGround = true;
 		}
 	}
 	
@@ -248,25 +214,23 @@ public class Player extends Entity {
 			} else {
 				x = spawnX;
 				y = spawnY;
+				savePosition();
 				invincibilityTime = 120; // two seconds
 			}
 		}
 	}
 	
 	/**
-	 * Draw the player sprite.
-	 * @param renderer The renderer responsible for drawing the player sprite
-	 * @param xOffset The relative x position to draw the player sprite
-	 * @param yOffset The relative y position to draw the player sprite
+	 * Add the player sprite to a frame snapshot. The player has a layer of
+	 * its own, so items and other entities are drawn behind it whatever
+	 * order they are added in.
+	 * @param snapshot The snapshot the player sprite is added to
 	 */
-	public void draw(Renderer renderer, int xOffset, int yOffset) {
+	public void capture(FrameSnapshot snapshot) {
 		if (visible) {
-			renderer.drawSprite((int) x, (int) y, spriteIndex * 16 + (int) imageIndex * 16, flip * 16, 16, 16, xOffset, yOffset);
-//			for (Entity item : items) {
-//				// draw items behind player
-//			}
+			snapshot.addSprite(SpriteBatch.LAYER_PLAYER, prevX, prevY, x, y, spriteIndex * 16 + (int) imageIndex * 16, flip * 16, 16, 16);
 		}
-		super.draw(renderer, xOffset, yOffset);
+		super.capture(snapshot);
 	}
 	
 	/**
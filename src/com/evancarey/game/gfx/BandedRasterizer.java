@@ -0,0 +1,85 @@
+package com.evancarey.game.gfx;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws recorded frames (see DrawList) with several threads at once.
+ * The frame is split into horizontal bands of rows, and each band replays
+ * the whole list through its own renderer, clipped to its rows (see
+ * Renderer.createBand()). Every pixel is only drawn by its band, in the
+ * list's order, so the result is the same as a single-threaded replay. The
+ * bands run on the common ForkJoinPool, and the tasks are reused from frame
+ * to frame so drawing does not allocate.
+ */
+public class BandedRasterizer {
+	
+	/** The fewest rows in a band, below which splitting costs more than it saves */
+	public static final int MIN_BAND_ROWS = 16;
+	
+	private Renderer target;
+	private Renderer[] bands;
+	private ReplayBand[] tasks;
+	/** The list being replayed */
+	private DrawList list;
+	
+	/**
+	 * Construct a rasterizer that draws into a renderer's pixels.
+	 * @param target The renderer to draw into
+	 * @param threads The number of bands to draw at once (1 for single-threaded)
+	 */
+	public BandedRasterizer(Renderer target, int threads) {
+		this.target = target;
+		int count = Math.max(Math.min(threads, target.getHeight() / MIN_BAND_ROWS), 1);
+		bands = new Renderer[count];
+		tasks = new ReplayBand[count];
+		for (int i = 0; i < count; i++) {
+			bands[i] = target.createBand(target.getHeight() * i / count, target.getHeight() * (i + 1) / count);
+			tasks[i] = new ReplayBand(bands[i]);
+		}
+	}
+	
+	/**
+	 * Draw a recorded frame, waiting until every band is done.
+	 * @param list The frame to draw
+	 */
+	public void replay(DrawList list) {
+		if (bands.length == 1) {
+			list.replay(target);
+			return;
+		}
+		this.list = list;
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i].reinitialize();
+		}
+		ForkJoinTask.invokeAll(tasks); // runs the first band on this thread
+		this.list = null;
+	}
+	
+	/**
+	 * Get the number of bands the frame is split into.
+	 * @return The number of bands
+	 */
+	public int getBandCount() {
+		return bands.length;
+	}
+	
+	/**
+	 * Task that replays the current list into one band.
+	 */
+	private class ReplayBand extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private Renderer band;
+		
+		private ReplayBand(Renderer band) {
+			this.band = band;
+		}
+		
+		@Override
+		protected void compute() {
+			list.replay(band);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.evancarey.game.gfx;
+
+import java.util.Arrays;
+
+import com.evancarey.game.Global.Enum_DrawMethod;
+
+/**
+ * A recorded frame: the draw calls a renderer received while recording,
+ * stored in flat arrays so a frame can be captured on one thread and drawn
+ * on another. The sprites it refers to (sprite sheets and pre-rendered
+ * chunks) are never changed once made, so they are shared rather than
+ * copied. A list is meant to be cleared and reused, so once its arrays have
+ * grown to fit a frame, recording does not allocate.
+ */
+public class DrawList {
+	
+	// Commands, each followed by its arguments in the ops array
+	private static final int CLEAR = 0;	// color
+	private static final int PIXEL = 1;	// x, y, color
+	private static final int RECT = 2;	// x, y, width, height, color, border
+	private static final int BLIT = 3;	// sprite, x, y, texX, texY, texWidth, texHeight
+	private static final int MODE = 4;	// draw mode
+	private static final int GLYPH = 5;	// x, y, glyph mask, color
+	/** The draw modes by ordinal (values() copies the array on every call) */
+	private static final Enum_DrawMethod[] MODES = Enum_DrawMethod.values();
+	
+	private int[] ops;
+	private int size;
+	/** The sprites drawn by BLIT commands, referred to by index */
+	private Sprite[] sprites;
+	private int spriteCount;
+	
+	/**
+	 * Construct an empty draw list.
+	 */
+	public DrawList() {
+		ops = new int[4096];
+		size = 0;
+		sprites = new Sprite[256];
+		spriteCount = 0;
+	}
+	
+	/**
+	 * Remove every command, keeping the arrays for the next frame.
+	 */
+	public void clear() {
+		size = 0;
+		Arrays.fill(sprites, 0, spriteCount, null);
+		spriteCount = 0;
+	}
+	
+	/**
+	 * Draw the recorded frame.
+	 * @param renderer The renderer to draw the commands with
+	 */
+	public void replay(Renderer renderer) {
+		renderer.setDrawMode(Enum_DrawMethod.DM_NORMAL);
+		int i = 0;
+		while (i < size) {
+			switch (ops[i]) {
+			case CLEAR:
+				renderer.clearScreen(ops[i + 1]);
+				i += 2;
+				break;
+			case PIXEL:
+				renderer.drawPixel(ops[i + 1], ops[i + 2], ops[i + 3]);
+				i += 4;
+				break;
+			case RECT:
+				renderer.drawRect(ops[i + 1], ops[i + 2], ops[i + 3], ops[i + 4], ops[i + 5], 0, 0, ops[i + 6] != 0);
+				i += 7;
+				break;
+			case BLIT:
+				renderer.blit(sprites[ops[i + 1]], ops[i + 2], ops[i + 3], ops[i + 4], ops[i + 5], ops[i + 6], ops[i + 7]);
+				i += 8;
+				break;
+			case MODE:
+				renderer.setDrawMode(MODES[ops[i + 1]]);
+				i += 2;
+				break;
+			case GLYPH:
+				renderer.drawGlyph(ops[i + 1], ops[i + 2], ops[i + 3], ops[i + 4]);
+				i += 5;
+				break;
+			default:
+				throw new IllegalStateException("Unknown draw command " + ops[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of ints used by the recorded commands.
+	 * @return The size of the list
+	 */
+	public int size() {
+		return size;
+	}
+	
+	void addClear(int color) {
+		ensureCapacity(2);
+		ops[size++] = CLEAR;
+		ops[size++] = color;
+	}
+	
+	void addPixel(int x, int y, int color) {
+		ensureCapacity(4);
+		ops[size++] = PIXEL;
+		ops[size++] = x;
+		ops[size++] = y;
+		ops[size++] = color;
+	}
+	
+	void addRect(int x, int y, int width, int height, int color, boolean border) {
+		ensureCapacity(7);
+		ops[size++] = RECT;
+		ops[size++] = x;
+		ops[size++] = y;
+		ops[size++] = width;
+		ops[size++] = height;
+		ops[size++] = color;
+		ops[size++] = border ? 1 : 0;
+	}
+	
+	void addBlit(Sprite sprite, int x, int y, int texX, int texY, int texWidth, int texHeight) {
+		ensureCapacity(8);
+		if (spriteCount == sprites.length) {
+			sprites = Arrays.copyOf(sprites, sprites.length * 2);
+		}
+		sprites[spriteCount] = sprite;
+		ops[size++] = BLIT;
+		ops[size++] = spriteCount++;
+		ops[size++] = x;
+		ops[size++] = y;
+		ops[size++] = texX;
+		ops[size++] = texY;
+		ops[size++] = texWidth;
+		ops[size++] = texHeight;
+	}
+	
+	void addGlyph(int x, int y, int mask, int color) {
+		ensureCapacity(5);
+		ops[size++] = GLYPH;
+		ops[size++] = x;
+		ops[size++] = y;
+		ops[size++] = mask;
+		ops[size++] = color;
+	}
+	
+	void addMode(Enum_DrawMethod drawMode) {
+		ensureCapacity(2);
+		ops[size++] = MODE;
+		ops[size++] = drawMode.ordinal();
+	}
+	
+	/**
+	 * Grow the ops array if it cannot fit more ints.
+	 * @param count The number of ints about to be added
+	 */
+	private void ensureCapacity(int count) {
+		if (size + count > ops.length) {
+			ops = Arrays.copyOf(ops, Math.max(ops.length * 2, size + count));
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.evancarey.game.gfx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands frames from the update thread to the render thread.
+ * Three frames (e.g. snapshots of the game to draw) are rotated (triple
+ * buffering): the update thread fills one, the render thread draws
+ * another, and the third holds the latest finished frame. Neither thread
+ * ever waits for the other, and a frame is never changed while it is
+ * being drawn.
+ * @param <T> The type of frame
+ */
+public class FrameExchange<T> {
+	
+	private List<T> frames;
+	/** The frame being filled */
+	private int back;
+	/** The latest finished frame */
+	private int middle;
+	/** The frame being drawn */
+	private int front;
+	/** Whether the middle frame is newer than the front one */
+	private boolean fresh;
+	
+	/**
+	 * Construct an exchange of three frames, none of them finished yet.
+	 * @param first The frame filled first
+	 * @param second Another frame
+	 * @param third Another frame
+	 */
+	public FrameExchange(T first, T second, T third) {
+		frames = new ArrayList<T>(3);
+		frames.add(first);
+		frames.add(second);
+		frames.add(third);
+		back = 0;
+		middle = 1;
+		front = 2;
+		fresh = false;
+	}
+	
+	/**
+	 * Get the frame to fill next. Only the update thread may call this, and
+	 * the frame is its own until it calls publish().
+	 * @return The back frame, which still holds an older frame
+	 */
+	public T getBack() {
+		return frames.get(back);
+	}
+	
+	/**
+	 * Make the filled back frame the latest frame. A latest frame that was
+	 * never drawn is dropped and reused.
+	 */
+	public synchronized void publish() {
+		int finished = back;
+		back = middle;
+		middle = finished;
+		fresh = true;
+	}
+	
+	/**
+	 * Take the latest frame for drawing, if there is a new one. Only the
+	 * render thread may call this, and the frame stays valid until it calls
+	 * this again and gets a new one.
+	 * @return The latest frame, or null if there is none since the last call
+	 */
+	public synchronized T acquire() {
+		if (!fresh) {
+			return null;
+		}
+		int latest = middle;
+		middle = front;
+		front = latest;
+		fresh = false;
+		return frames.get(front);
+	}
+}
@@ -0,0 +1,51 @@
+package com.evancarey.game.gfx;
+
+/**
+ * The font's glyphs as coverage masks. The font sheet holds a 5x5 glyph for
+ * each of the 256 characters, on a 6 pixel grid (16 to a row). Each glyph is
+ * read once and packed into the low 25 bits of an int, row after row with
+ * bit x + 5 * y set where the glyph is opaque, so drawing a character only
+ * has to walk the set bits of its mask.
+ */
+public class GlyphAtlas {
+	
+	/** The width and height of a glyph in pixels */
+	public static final int GLYPH_SIZE = 5;
+	/** The distance between characters and between lines in pixels */
+	public static final int ADVANCE = 6;
+	/** The bits of one row of a mask */
+	public static final int ROW_MASK = (1 << GLYPH_SIZE) - 1;
+	
+	private int[] masks;
+	
+	/**
+	 * Construct an atlas from the font sheet.
+	 * @param font The compiled font sheet
+	 */
+	public GlyphAtlas(Sprite font) {
+		masks = new int[256];
+		for (int c = 0; c < masks.length; c++) {
+			int texX = (c % 16) * ADVANCE;
+			int texY = (c / 16) * ADVANCE;
+			int mask = 0;
+			for (int y = 0; y < GLYPH_SIZE; y++) {
+				for (int x = 0; x < GLYPH_SIZE; x++) {
+					if (texX + x < font.getWidth() && texY + y < font.getHeight()
+							&& font.getPixel(texX + x, texY + y) != Sprite.TRANSPARENT) {
+						mask |= 1 << (x + y * GLYPH_SIZE);
+					}
+				}
+			}
+			masks[c] = mask;
+		}
+	}
+	
+	/**
+	 * Get the mask of a character's glyph.
+	 * @param c The character
+	 * @return The mask (0 for characters outside the font)
+	 */
+	public int getMask(int c) {
+		return c >= 0 && c < masks.length ? masks[c] : 0;
+	}
+}
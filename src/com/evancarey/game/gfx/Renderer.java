@@ -1,6 +1,9 @@
 package com.evancarey.game.gfx;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
@@ -11,33 +14,122 @@ import com.evancarey.game.Global.Enum_DrawMethod;
 /** The class responsible for rendering the game's objects */
 public class Renderer {
 
+	/** Colors that are not drawn from the tile and sprite sheets */
+	private static final int[] SHEET_TRANSPARENT = {0xff00ff, 0x77007f};
+	/** Colors that are not drawn from the font sheet */
+	private static final int[] FONT_TRANSPARENT = {0x000000, 0xff00ff, 0x77007f};
+	/** The number of laid out strings kept by each renderer */
+	private static final int LAYOUT_CACHE_SIZE = 64;
+	
 	private int w;
 	private int h;
 	private int[] pixels;
+	/** The rows drawing is clipped to, from clipTop up to but not including clipBottom */
+	private int clipTop;
+	private int clipBottom;
 	
 	private Sprite font;
 	private Sprite tiles;
 	private Sprite sprites;
+	private GlyphAtlas glyphs;
+	/**
+	 * Recently drawn strings, laid out as (x, y, glyph mask) for each glyph
+	 * with any opaque pixels, least recently drawn first
+	 */
+	private Map<String, int[]> layouts;
 	/** Proper background is not yet implemented */
 	//private Sprite background;
 	
 	private Enum_DrawMethod drawMode;
+	/** How far between the previous and the current game tick to draw moving things */
+	private double interpolation;
+	/** The list draw calls are recorded into instead of drawn (null when drawing) */
+	private DrawList recording;
 	
+	/**
+	 * Construct a renderer that draws into its own pixel array.
+	 */
 	public Renderer() {
-		w = Global.WIDTH;
-		h = Global.HEIGHT;
-		pixels = new int[w * h];
+		this(new int[Global.WIDTH * Global.HEIGHT], Global.WIDTH, Global.HEIGHT);
+	}
+	
+	/**
+	 * Construct a renderer that draws straight into an existing pixel array,
+	 * such as the data buffer behind a BufferedImage.
+	 * @param pixels The pixels to draw into (at least w * h long)
+	 * @param w The width of the pixel array
+	 * @param h The height of the pixel array
+	 */
+	public Renderer(int[] pixels, int w, int h) {
+		this.w = w;
+		this.h = h;
+		this.pixels = pixels;
+		clipTop = 0;
+		clipBottom = h;
 		
 		// Load sprites
 		try {
-			font = new Sprite(ImageIO.read(Game.class.getResource("/font.png")));
-			tiles = new Sprite(ImageIO.read(Game.class.getResource("/tiles.png")));
-			sprites = new Sprite(ImageIO.read(Game.class.getResource("/sprites.png")));
+			font = new Sprite(ImageIO.read(Game.class.getResource("/font.png")), FONT_TRANSPARENT);
+			tiles = new Sprite(ImageIO.read(Game.class.getResource("/tiles.png")), SHEET_TRANSPARENT);
+			sprites = new Sprite(ImageIO.read(Game.class.getResource("/sprites.png")), SHEET_TRANSPARENT);
 			//background = new Sprite(ImageIO.read(Game.class.getResource("/background.png")));
+			glyphs = new GlyphAtlas(font);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		layouts = createLayoutCache();
 		drawMode = Enum_DrawMethod.DM_NORMAL;
+		interpolation = 1.0;
+	}
+	
+	/**
+	 * Construct a renderer that shares another renderer's sprite sheets.
+	 * @param parent The renderer whose sheets are used
+	 * @param pixels The pixels to draw into
+	 * @param w The width of the pixel array
+	 * @param h The height of the pixel array
+	 */
+	private Renderer(Renderer parent, int[] pixels, int w, int h) {
+		this.w = w;
+		this.h = h;
+		this.pixels = pixels;
+		clipTop = 0;
+		clipBottom = h;
+		font = parent.font;
+		tiles = parent.tiles;
+		sprites = parent.sprites;
+		glyphs = parent.glyphs;
+		layouts = createLayoutCache(); // not shared, as renderers may be used by different threads
+		drawMode = Enum_DrawMethod.DM_NORMAL;
+		interpolation = parent.interpolation;
+	}
+	
+	/**
+	 * Create a renderer that draws into another pixel array (e.g. an off-screen
+	 * bitmap) using this renderer's sprite sheets, without loading them again.
+	 * @param pixels The pixels to draw into (at least w * h long, or null for
+	 *               a renderer that only records)
+	 * @param w The width of the pixel array
+	 * @param h The height of the pixel array
+	 * @return The new renderer
+	 */
+	public Renderer createTarget(int[] pixels, int w, int h) {
+		return new Renderer(this, pixels, w, h);
+	}
+	
+	/**
+	 * Create a renderer that draws into the same pixels as this one but only
+	 * into a band of rows, so several threads can draw a frame at once, each
+	 * into its own band (see BandedRasterizer).
+	 * @param top The first row of the band
+	 * @param bottom The row after the last row of the band
+	 * @return The new renderer
+	 */
+	public Renderer createBand(int top, int bottom) {
+		Renderer band = new Renderer(this, pixels, w, h);
+		band.clipTop = Math.max(top, 0);
+		band.clipBottom = Math.min(bottom, h);
+		return band;
 	}
 	
 	/**
@@ -45,10 +137,12 @@ public class Renderer {
 	 * @param color The background color
 	 */
 	public void clearScreen(int color) {
-		for (int i = 0; i < pixels.length; i++) {
-			//pixels[i] = background.getPixel(i % background.getWidth(), i / background.getHeight());
-			pixels[i] = color;
+		if (recording != null) {
+			recording.addClear(color);
+			return;
 		}
+		//pixels[i] = background.getPixel(i % background.getWidth(), i / background.getHeight());
+		Arrays.fill(pixels, clipTop * w, clipBottom * w, color);
 	}
 	
 	/**
@@ -58,15 +152,14 @@ public class Renderer {
 	 * @param color The pixel color
 	 */
 	public void drawPixel(int x, int y, int color) {
-		if (x < 0 || x >= w || y < 0 || y >= h) {
+		if (x < 0 || x >= w || y < clipTop || y >= clipBottom) {
+			return;
+		}
+		if (recording != null) {
+			recording.addPixel(x, y, color);
 			return;
 		}
-		if (drawMode == Enum_DrawMethod.DM_NORMAL) 
-			pixels[x + y * w] = color;
-		if (drawMode == Enum_DrawMethod.DM_ADDITIVE)
-			pixels[x + y * w] = Global.addColors(pixels[x + y * w], color);
-		if (drawMode == Enum_DrawMethod.DM_MULTIPLY)
-			pixels[x + y * w] = Global.multiplyColors(pixels[x + y * w], color);
+		pixels[x + y * w] = blend(pixels[x + y * w], color);
 	}
 	
 	/**
@@ -81,16 +174,7 @@ public class Renderer {
 	 * @param yOffset The relative y position of the tile
 	 */
 	public void drawTile(int x, int y, int texX, int texY, int texWidth, int texHeight, int xOffset, int yOffset) {
-		x += xOffset;
-		y += yOffset;
-		for (int xa = 0; xa < texWidth; xa++) {
-			for (int ya = 0; ya < texHeight; ya++) {
-				int color = tiles.getPixel(texX + xa, texY + ya);
-				if (color != 0xff00ff && color != 0x77007f) {
-					drawPixel(x + xa, y + ya, color);
-				}
-			}
-		}
+		blit(tiles, x + xOffset, y + yOffset, texX, texY, texWidth, texHeight);
 	}
 	
 	/**
@@ -105,20 +189,143 @@ public class Renderer {
 	 * @param yOffset The relative y position of the sprite
 	 */
 	public void drawSprite(int x, int y, int texX, int texY, int texWidth, int texHeight, int xOffset, int yOffset) {
-		x += xOffset;
-		y += yOffset;
-		for (int xa = 0; xa < texWidth; xa++) {
-			for (int ya = 0; ya < texHeight; ya++) {
-				int color = sprites.getPixel(texX + xa, texY + ya);
-				if (color != 0xff00ff && color != 0x77007f) {
-					drawPixel(x + xa, y + ya, color);
+		blit(sprites, x + xOffset, y + yOffset, texX, texY, texWidth, texHeight);
+	}
+	
+	/**
+	 * Draw a whole compiled sprite, such as a pre-rendered bitmap.
+	 * @param sprite The sprite to draw
+	 * @param x The x position on screen
+	 * @param y The y position on screen
+	 */
+	public void drawImage(Sprite sprite, int x, int y) {
+		blit(sprite, x, y, 0, 0, sprite.getWidth(), sprite.getHeight());
+	}
+	
+	/**
+	 * Copy a rectangle of a sprite sheet to the screen, skipping transparent texels.
+	 * The rectangle is clipped against the sheet and the screen once, then drawn
+	 * row by row from the sheet's precompiled opaque spans, so transparent runs
+	 * are skipped wholesale. When drawing normally each visible part of a span is
+	 * copied with a single System.arraycopy; the blended modes have a loop of
+	 * their own each (see blendSpan()), so no loop tests the draw mode per
+	 * pixel.
+	 * @param sheet The compiled sprite sheet to copy from
+	 * @param x The x position on screen
+	 * @param y The y position on screen
+	 * @param texX The x position of the rectangle on the sheet
+	 * @param texY The y position of the rectangle on the sheet
+	 * @param texWidth The width of the rectangle
+	 * @param texHeight The height of the rectangle
+	 */
+	void blit(Sprite sheet, int x, int y, int texX, int texY, int texWidth, int texHeight) {
+		int x0 = Math.max(0, Math.max(-x, -texX));
+		int y0 = Math.max(0, Math.max(clipTop - y, -texY));
+		int x1 = Math.min(texWidth, Math.min(w - x, sheet.getWidth() - texX));
+		int y1 = Math.min(texHeight, Math.min(clipBottom - y, sheet.getHeight() - texY));
+		if (x0 >= x1 || y0 >= y1) {
+			return; // nothing on screen
+		}
+		if (recording != null) {
+			recording.addBlit(sheet, x, y, texX, texY, texWidth, texHeight);
+			return;
+		}
+		
+		int[] spans = sheet.getSpans();
+		int[] offsets = sheet.getSpanOffsets();
+		int[] texels = sheet.getTexels();
+		// the visible columns, in sheet coordinates
+		int left = texX + x0;
+		int right = texX + x1;
+		for (int ya = y0; ya < y1; ya++) {
+			int dst = x - texX + (y + ya) * w;
+			int last = sheet.getRowStart(texY + ya + 1);
+			for (int i = sheet.getRowStart(texY + ya); i < last; i++) {
+				int start = spans[i] >>> 16;
+				if (start >= right) {
+					break; // spans are sorted, so the rest of the row is past the rectangle
 				}
+				int end = start + (spans[i] & 0xffff);
+				if (end <= left) {
+					continue;
+				}
+				int a = Math.max(start, left);
+				int b = Math.min(end, right);
+				blendSpan(texels, offsets[i] + a - start, dst + a, b - a);
 			}
 		}
 	}
 	
+	/**
+	 * Combine a color with the pixel under it using the current draw mode.
+	 * @param pixel The color already on screen
+	 * @param color The color being drawn
+	 * @return The resulting color
+	 */
+	private int blend(int pixel, int color) {
+		switch (drawMode) {
+		case DM_ADDITIVE:
+			return Global.addColors(pixel, color);
+		case DM_MULTIPLY:
+			return Global.multiplyColors(pixel, color);
+		default:
+			return color;
+		}
+	}
+	
+	/**
+	 * Draw a run of colors onto consecutive pixels using the current draw mode.
+	 * @param colors The colors to draw
+	 * @param from The index of the first color
+	 * @param dst The index of the first pixel
+	 * @param length The number of pixels
+	 */
+	private void blendSpan(int[] colors, int from, int dst, int length) {
+		switch (drawMode) {
+		case DM_ADDITIVE:
+			for (int i = 0; i < length; i++) {
+				pixels[dst + i] = Global.addColors(pixels[dst + i], colors[from + i]);
+			}
+			break;
+		case DM_MULTIPLY:
+			for (int i = 0; i < length; i++) {
+				pixels[dst + i] = Global.multiplyColors(pixels[dst + i], colors[from + i]);
+			}
+			break;
+		default:
+			System.arraycopy(colors, from, pixels, dst, length);
+			break;
+		}
+	}
+	
+	/**
+	 * Draw one color onto consecutive pixels using the current draw mode.
+	 * @param from The index of the first pixel
+	 * @param to The index after the last pixel
+	 * @param color The color to draw
+	 */
+	private void blendFill(int from, int to, int color) {
+		switch (drawMode) {
+		case DM_ADDITIVE:
+			for (int i = from; i < to; i++) {
+				pixels[i] = Global.addColors(pixels[i], color);
+			}
+			break;
+		case DM_MULTIPLY:
+			for (int i = from; i < to; i++) {
+				pixels[i] = Global.multiplyColors(pixels[i], color);
+			}
+			break;
+		default:
+			Arrays.fill(pixels, from, to, color);
+			break;
+		}
+	}
+	
 	/**
 	 * Draw text from the font sheet.
+	 * The text is laid out once and kept in a small cache, so redrawing a
+	 * string only walks its glyphs' masks (see GlyphAtlas).
 	 * @param text The text to draw
 	 * @param x The absolute x position to draw the text
 	 * @param y The absolute y position to draw the text
@@ -128,25 +335,58 @@ public class Renderer {
 		if (text == "" || text == null) {
 			return;
 		}
-		int xTop = x;
-		int yTop = y;
-		int tileX = 0;
-		int tileY = 0;
+		int[] layout = layouts.get(text);
+		if (layout == null) {
+			layout = layout(text);
+			layouts.put(text, layout);
+		}
+		for (int i = 0; i < layout.length; i += 3) {
+			drawGlyph(x + layout[i], y + layout[i + 1], layout[i + 2], color);
+		}
+	}
+	
+	/**
+	 * Lay out a string: each character's glyph is ADVANCE pixels right of the
+	 * last, and a newline starts the next line. Glyphs with no opaque pixels
+	 * are left out.
+	 * @param text The text to lay out
+	 * @return The position and mask of each glyph, three ints per glyph
+	 */
+	private int[] layout(String text) {
+		int[] layout = new int[text.length() * 3];
+		int size = 0;
+		int xa = 0;
+		int ya = 0;
 		for (int i = 0; i < text.length(); i++) {
-			
-			int nextChar = text.charAt(i);
-			
-			tileX = nextChar % 16;
-			tileY = nextChar / 16;
-			
-			drawChar(xTop, yTop, tileX, tileY, color);
-			
-			xTop += 6; // character width
+			int mask = glyphs.getMask(text.charAt(i));
+			if (mask != 0) {
+				layout[size++] = xa;
+				layout[size++] = ya;
+				layout[size++] = mask;
+			}
+			xa += GlyphAtlas.ADVANCE;
 			if (text.charAt(i) == '\n') {
-				xTop = x;
-				yTop += 6; // character height
+				xa = 0;
+				ya += GlyphAtlas.ADVANCE;
 			}
 		}
+		return Arrays.copyOf(layout, size);
+	}
+	
+	/**
+	 * Create the cache of laid out strings, which drops the least recently
+	 * drawn string once full.
+	 * @return The empty cache
+	 */
+	private static Map<String, int[]> createLayoutCache() {
+		return new LinkedHashMap<String, int[]>(LAYOUT_CACHE_SIZE * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+				return size() > LAYOUT_CACHE_SIZE;
+			}
+		};
 	}
 	
 	/**
@@ -158,11 +398,47 @@ public class Renderer {
 	 * @param color The color to draw the character
 	 */
 	public void drawChar(int x, int y, int tileX, int tileY, int color) {
-		for (int xa = 0; xa < 5; xa++) {
-			for (int ya = 0; ya < 5; ya++) {
-				int pixel = font.getPixel(tileX * 6 + xa, tileY * 6 + ya);
-				if (pixel != 0x000000 && pixel != 0xff00ff && pixel != 0x77007f) {
-					drawPixel(x + xa, y + ya, color);
+		drawGlyph(x, y, glyphs.getMask(tileX + tileY * 16), color);
+	}
+	
+	/**
+	 * Draw a glyph's opaque pixels in a color. A glyph wholly on screen and
+	 * drawn normally is written straight from its mask, a bit at a time;
+	 * otherwise each pixel is clipped and blended.
+	 * @param x The x position on screen
+	 * @param y The y position on screen
+	 * @param mask The glyph's mask (see GlyphAtlas)
+	 * @param color The color to draw the glyph in
+	 */
+	void drawGlyph(int x, int y, int mask, int color) {
+		int size = GlyphAtlas.GLYPH_SIZE;
+		if (mask == 0 || x + size <= 0 || x >= w || y + size <= clipTop || y >= clipBottom) {
+			return; // nothing on screen
+		}
+		if (recording != null) {
+			recording.addGlyph(x, y, mask, color);
+			return;
+		}
+		
+		if (drawMode == Enum_DrawMethod.DM_NORMAL && x >= 0 && y >= clipTop && x + size <= w && y + size <= clipBottom) {
+			for (int ya = 0; ya < size; ya++) {
+				int bits = (mask >>> (ya * size)) & GlyphAtlas.ROW_MASK;
+				int row = x + (y + ya) * w;
+				while (bits != 0) {
+					pixels[row + Integer.numberOfTrailingZeros(bits)] = color;
+					bits &= bits - 1;
+				}
+			}
+			return;
+		}
+		for (int ya = 0; ya < size; ya++) {
+			int bits = (mask >>> (ya * size)) & GlyphAtlas.ROW_MASK;
+			int row = x + (y + ya) * w;
+			while (bits != 0) {
+				int xa = Integer.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (x + xa >= 0 && x + xa < w && y + ya >= clipTop && y + ya < clipBottom) {
+					pixels[row + xa] = blend(pixels[row + xa], color);
 				}
 			}
 		}
@@ -182,12 +458,21 @@ public class Renderer {
 	public void drawRect(int x, int y, int width, int height, int color, int xOffset, int yOffset, boolean border) {
 		x += xOffset;
 		y += yOffset;
+		if (recording != null) {
+			recording.addRect(x, y, width, height, color, border);
+			return;
+		}
 		
-		if (!border) { // fill rectangle
-			for (int xa = 0; xa < width; xa++) {
-				for (int ya = 0; ya < height; ya++) {
-					drawPixel(x + xa, y + ya, color);
-				}
+		if (!border) { // fill rectangle, clipped to the screen
+			int x0 = Math.max(x, 0);
+			int y0 = Math.max(y, clipTop);
+			int x1 = Math.min(x + width, w);
+			int y1 = Math.min(y + height, clipBottom);
+			if (x0 >= x1) {
+				return;
+			}
+			for (int ya = y0; ya < y1; ya++) {
+				blendFill(x0 + ya * w, x1 + ya * w, color);
 			}
 		} else {	// empty rectangle
 			for (int xa = 0; xa <= width; xa++) {
@@ -203,6 +488,79 @@ public class Renderer {
 	
 	public void setDrawMode(Enum_DrawMethod drawMode) {
 		this.drawMode = drawMode;
+		if (recording != null) {
+			recording.addMode(drawMode);
+		}
+	}
+	
+	/**
+	 * Start or stop recording. While recording, draw calls are added to a
+	 * draw list (to be replayed later, e.g. on another thread) instead of
+	 * being drawn. Calls that are entirely off screen are left out.
+	 * @param list The list to record into, or null to draw again
+	 */
+	public void record(DrawList list) {
+		recording = list;
+	}
+	
+	/**
+	 * Set how far between game ticks the frame being drawn is. Moving things
+	 * are drawn that far from their previous position towards their current
+	 * one, so motion stays smooth when there are more frames than ticks.
+	 * @param interpolation 0 for the previous tick, 1 for the current tick
+	 */
+	public void setInterpolation(double interpolation) {
+		this.interpolation = interpolation;
+	}
+	
+	/**
+	 * Get how far between game ticks the frame being drawn is.
+	 * @return 0 for the previous tick, 1 for the current tick
+	 */
+	public double getInterpolation() {
+		return interpolation;
+	}
+	
+	/**
+	 * Print how much memory the compiled sprite sheets use compared to
+	 * storing them as raw pixel arrays.
+	 */
+	public void printMemoryUsage() {
+		Sprite[] sheets = {font, tiles, sprites};
+		String[] names = {"font", "tiles", "sprites"};
+		int raw = 0;
+		int compiled = 0;
+		for (int i = 0; i < sheets.length; i++) {
+			System.out.println(names[i] + ": " + sheets[i].getRawMemoryUsage() + " bytes as int[], "
+					+ sheets[i].getMemoryUsage() + " bytes as spans");
+			raw += sheets[i].getRawMemoryUsage();
+			compiled += sheets[i].getMemoryUsage();
+		}
+		System.out.println("total: " + raw + " bytes as int[], " + compiled + " bytes as spans");
+	}
+	
+	/**
+	 * Get the sprite sheet, for draws that are batched (see SpriteBatch).
+	 * @return The compiled sprite sheet
+	 */
+	Sprite getSpriteSheet() {
+		return sprites;
+	}
+	
+	/**
+	 * Get the width of the area the renderer draws into.
+	 * @return The width in pixels
+	 */
+	public int getWidth() {
+		return w;
+	}
+	
+	/**
+	 * Get the height of the area the renderer draws into.
+	 * @return The height in pixels
+	 */
+	public int getHeight() {
+		return h;
 	}
 	
 	/**
@@ -216,4 +574,12 @@ public class Renderer {
 		}
 		return pixels[i];
 	}
+	
+	/**
+	 * Get the pixels the renderer draws into.
+	 * @return The pixel array
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
 }
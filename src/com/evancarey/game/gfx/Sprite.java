@@ -4,11 +4,24 @@ import java.awt.image.BufferedImage;
 
 /** Class for a sprite image */
 public class Sprite {
-
+	
+	/** Color returned by getPixel() for the transparent texels of a compiled sprite */
+	public static final int TRANSPARENT = 0xff00ff;
+	
 	private int width;
 	private int height;
+	/** The raw pixels (null once the sprite is compiled into spans) */
 	private int[] pixels;
-
+	
+	/** Index of each row's first span (height + 1 entries, so row y uses rowStarts[y] to rowStarts[y + 1]) */
+	private int[] rowStarts;
+	/** The runs of opaque texels in each row, packed as (x << 16) | length */
+	private int[] spans;
+	/** Index of each span's first texel in the texels array */
+	private int[] spanOffsets;
+	/** The colors of all opaque texels, span after span */
+	private int[] texels;
+	
 	/**
 	 * Construct a sprite from a given image
 	 * @param image The image that contains the sprite
@@ -18,13 +31,108 @@ public class Sprite {
 		height = image.getHeight();
 		pixels = new int[width * height];
 		image.getRGB(0, 0, width, height, pixels, 0, width);
-
+		
 		// set pixels with mask
 		for (int i = 0; i < pixels.length; i++) {
 			pixels[i] &= 0xffffff;
 		}
 	}
-
+	
+	/**
+	 * Construct a sprite from a given image and compile it into runs of opaque
+	 * texels, so drawing can skip transparent runs without testing each texel.
+	 * The raw pixels are not kept.
+	 * @param image The image that contains the sprite
+	 * @param transparentColors The colors that are not drawn
+	 */
+	public Sprite(BufferedImage image, int[] transparentColors) {
+		this(image);
+		compile(transparentColors);
+	}
+	
+	/**
+	 * Construct a sprite from an array of pixels and compile it into runs of
+	 * opaque texels. The array is copied, so it can be reused afterwards.
+	 * @param pixels The pixels of the image
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param transparentColors The colors that are not drawn
+	 */
+	public Sprite(int[] pixels, int width, int height, int[] transparentColors) {
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		compile(transparentColors);
+	}
+	
+	/**
+	 * Compile the raw pixels into per-row spans of opaque texels.
+	 * @param transparentColors The colors that are not drawn
+	 */
+	private void compile(int[] transparentColors) {
+		// count the spans and opaque texels first so the arrays are sized exactly
+		int spanCount = 0;
+		int texelCount = 0;
+		for (int y = 0; y < height; y++) {
+			boolean opaque = false;
+			for (int x = 0; x < width; x++) {
+				boolean o = !isTransparent(pixels[x + y * width], transparentColors);
+				if (o) {
+					texelCount++;
+					if (!opaque) {
+						spanCount++;
+					}
+				}
+				opaque = o;
+			}
+		}
+		
+		rowStarts = new int[height + 1];
+		spans = new int[spanCount];
+		spanOffsets = new int[spanCount];
+		texels = new int[texelCount];
+		
+		int span = 0;
+		int texel = 0;
+		for (int y = 0; y < height; y++) {
+			rowStarts[y] = span;
+			int x = 0;
+			while (x < width) {
+				while (x < width && isTransparent(pixels[x + y * width], transparentColors)) {
+					x++;
+				}
+				int start = x;
+				while (x < width && !isTransparent(pixels[x + y * width], transparentColors)) {
+					x++;
+				}
+				if (x > start) {
+					spans[span] = (start << 16) | (x - start);
+					spanOffsets[span] = texel;
+					System.arraycopy(pixels, start + y * width, texels, texel, x - start);
+					texel += x - start;
+					span++;
+				}
+			}
+		}
+		rowStarts[height] = span;
+		pixels = null;
+	}
+	
+	/**
+	 * Check if a color is one of the transparent colors.
+	 * @param color The color to check
+	 * @param transparentColors The colors that are not drawn
+	 * @return True if the color is transparent
+	 */
+	private static boolean isTransparent(int color, int[] transparentColors) {
+		for (int i = 0; i < transparentColors.length; i++) {
+			if (color == transparentColors[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Get the width of the sprite.
 	 * @return The width
@@ -32,7 +140,7 @@ public class Sprite {
 	public int getWidth() {
 		return width;
 	}
-
+	
 	/**
 	 * Get the height of the sprite.
 	 * @return The height
@@ -40,9 +148,10 @@ public class Sprite {
 	public int getHeight() {
 		return height;
 	}
-
+	
 	/**
 	 * Get a pixel from the sprite image.
+	 * For a compiled sprite, transparent texels are returned as TRANSPARENT.
 	 * @param x The x position of the pixel
 	 * @param y The y position of the pixel
 	 * @return The pixel at position (x,y)
@@ -51,14 +160,87 @@ public class Sprite {
 		if (x < 0 || x >= width || y < 0 || y >= height) {
 			return 0x000000;
 		}
-		return pixels[x + y * width];
+		if (pixels != null) {
+			return pixels[x + y * width];
+		}
+		for (int i = rowStarts[y]; i < rowStarts[y + 1]; i++) {
+			int start = spans[i] >>> 16;
+			if (x < start) {
+				break;
+			}
+			if (x < start + (spans[i] & 0xffff)) {
+				return texels[spanOffsets[i] + x - start];
+			}
+		}
+		return TRANSPARENT;
 	}
-
+	
 	/**
 	 * Get the sprite's pixels.
-	 * @return An array of the sprite's pixels
+	 * @return An array of the sprite's pixels, or null if the sprite is compiled
 	 */
 	public int[] getPixels() {
 		return pixels;
 	}
+	
+	/**
+	 * Check if the sprite has been compiled into spans of opaque texels.
+	 * @return True if the sprite is compiled
+	 */
+	public boolean isCompiled() {
+		return pixels == null;
+	}
+	
+	/**
+	 * Get the index of a row's first span. The row's spans end where the
+	 * next row's begin.
+	 * @param y The row
+	 * @return The index of the row's first span
+	 */
+	public int getRowStart(int y) {
+		return rowStarts[y];
+	}
+	
+	/**
+	 * Get the opaque spans of a compiled sprite, packed as (x << 16) | length.
+	 * @return The spans
+	 */
+	public int[] getSpans() {
+		return spans;
+	}
+	
+	/**
+	 * Get where each span's texels start in getTexels().
+	 * @return The span offsets
+	 */
+	public int[] getSpanOffsets() {
+		return spanOffsets;
+	}
+	
+	/**
+	 * Get the opaque texels of a compiled sprite.
+	 * @return The texels, span after span
+	 */
+	public int[] getTexels() {
+		return texels;
+	}
+	
+	/**
+	 * Get the number of bytes used to store the sprite's image data.
+	 * @return The size of the stored pixels or spans in bytes
+	 */
+	public int getMemoryUsage() {
+		if (pixels != null) {
+			return pixels.length * 4;
+		}
+		return (rowStarts.length + spans.length + spanOffsets.length + texels.length) * 4;
+	}
+	
+	/**
+	 * Get the number of bytes the sprite would use stored as raw pixels.
+	 * @return The size of a width * height int array in bytes
+	 */
+	public int getRawMemoryUsage() {
+		return width * height * 4;
+	}
 }
@@ -0,0 +1,211 @@
+package com.evancarey.game.gfx;
+
+import java.util.Arrays;
+
+/**
+ * Collects a frame's draw calls so they can be drawn in layer order rather
+ * than in the order they were made. Each call is stored as a command in
+ * flat arrays along with a sort key; end() sorts the keys once and draws
+ * the commands through a renderer. A key orders commands by layer, then by
+ * the sheet they are drawn from, then by the order they were added, so
+ * within a layer everything from one sheet is drawn together while calls
+ * on the same sheet keep their order. The batch is meant to be reused, so
+ * once its arrays have grown to fit a frame, batching does not allocate.
+ */
+public class SpriteBatch {
+	
+	// Layers, drawn from the lowest up
+	public static final int LAYER_TILES = 0;
+	/** Items on the ground, which the player and other entities walk in front of */
+	public static final int LAYER_ITEMS = 1;
+	public static final int LAYER_ENTITIES = 2;
+	/** The player, in front of every other entity */
+	public static final int LAYER_PLAYER = 3;
+	/** Collision bounds drawn in debug mode */
+	public static final int LAYER_DEBUG = 4;
+	public static final int LAYER_GUI = 5;
+	
+	// Commands, each followed by its arguments in the data array
+	private static final int BLIT = 0;	// x, y, texX, texY, texWidth, texHeight
+	private static final int RECT = 1;	// x, y, width, height, color, border
+	/** The ints each command takes in the data array */
+	private static final int STRIDE = 7;
+	
+	// Bit positions of the fields of a sort key
+	private static final int LAYER_SHIFT = 56;
+	private static final int SHEET_SHIFT = 32;
+	
+	/** The renderer the batch is drawn with (null outside begin() and end()) */
+	private Renderer renderer;
+	
+	private long[] keys;
+	private int[] data;
+	private int count;
+	/**
+	 * The sheets drawn from in this frame, numbered in the order they were
+	 * first used. Rectangles use no sheet and are numbered 0.
+	 */
+	private Sprite[] sheets;
+	private int sheetCount;
+	
+	/**
+	 * Construct an empty sprite batch.
+	 */
+	public SpriteBatch() {
+		keys = new long[256];
+		data = new int[256 * STRIDE];
+		count = 0;
+		sheets = new Sprite[64];
+		sheetCount = 1;
+	}
+	
+	/**
+	 * Start collecting a frame.
+	 * @param renderer The renderer the frame is drawn with at the end
+	 */
+	public void begin(Renderer renderer) {
+		this.renderer = renderer;
+		count = 0;
+	}
+	
+	/**
+	 * Sort the collected commands and draw them, ending the frame.
+	 */
+	public void end() {
+		Arrays.sort(keys, 0, count);
+		for (int i = 0; i < count; i++) {
+			int sheet = (int) (keys[i] >>> SHEET_SHIFT) & 0xffffff;
+			int d = (int) keys[i] * STRIDE;
+			switch (data[d]) {
+			case BLIT:
+				renderer.blit(sheets[sheet], data[d + 1], data[d + 2], data[d + 3], data[d + 4], data[d + 5], data[d + 6]);
+				break;
+			case RECT:
+				renderer.drawRect(data[d + 1], data[d + 2], data[d + 3], data[d + 4], data[d + 5], 0, 0, data[d + 6] != 0);
+				break;
+			default:
+				throw new IllegalStateException("Unknown batch command " + data[d]);
+			}
+		}
+		Arrays.fill(sheets, 1, sheetCount, null);
+		sheetCount = 1;
+		count = 0;
+		renderer = null;
+	}
+	
+	/**
+	 * Get the renderer the frame is drawn with, e.g. for its size and
+	 * interpolation.
+	 * @return The renderer passed to begin()
+	 */
+	public Renderer getRenderer() {
+		return renderer;
+	}
+	
+	/**
+	 * Draw a sprite from the sprite sheet.
+	 * @param layer The layer to draw the sprite in
+	 * @param x The absolute x position of the sprite
+	 * @param y The absolute y position of the sprite
+	 * @param texX The x position of the sprite on the sprite sheet
+	 * @param texY The y position of the sprite on the sprite sheet
+	 * @param texWidth The width of the sprite
+	 * @param texHeight The height of the sprite
+	 * @param xOffset The relative x position of the sprite
+	 * @param yOffset The relative y position of the sprite
+	 */
+	public void drawSprite(int layer, int x, int y, int texX, int texY, int texWidth, int texHeight, int xOffset, int yOffset) {
+		addBlit(layer, renderer.getSpriteSheet(), x + xOffset, y + yOffset, texX, texY, texWidth, texHeight);
+	}
+	
+	/**
+	 * Draw a whole compiled sprite, such as a pre-rendered bitmap.
+	 * @param layer The layer to draw the sprite in
+	 * @param sprite The sprite to draw
+	 * @param x The x position on screen
+	 * @param y The y position on screen
+	 */
+	public void drawImage(int layer, Sprite sprite, int x, int y) {
+		addBlit(layer, sprite, x, y, 0, 0, sprite.getWidth(), sprite.getHeight());
+	}
+	
+	/**
+	 * Draw a rectangle.
+	 * @param layer The layer to draw the rectangle in
+	 * @param x The absolute x position to draw the rectangle
+	 * @param y The absolute y position to draw the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param color The color of the rectangle
+	 * @param xOffset The relative position of the rectangle
+	 * @param yOffset The relative position of the rectangle
+	 * @param border Whether the rectangle is filled or an outline
+	 */
+	public void drawRect(int layer, int x, int y, int width, int height, int color, int xOffset, int yOffset, boolean border) {
+		int d = add(layer, 0);
+		data[d] = RECT;
+		data[d + 1] = x + xOffset;
+		data[d + 2] = y + yOffset;
+		data[d + 3] = width;
+		data[d + 4] = height;
+		data[d + 5] = color;
+		data[d + 6] = border ? 1 : 0;
+	}
+	
+	/**
+	 * Get the number of commands collected so far in this frame.
+	 * @return The number of commands
+	 */
+	public int size() {
+		return count;
+	}
+	
+	private void addBlit(int layer, Sprite sheet, int x, int y, int texX, int texY, int texWidth, int texHeight) {
+		if (x >= renderer.getWidth() || y >= renderer.getHeight() || x + texWidth <= 0 || y + texHeight <= 0) {
+			return; // off screen, so not worth sorting
+		}
+		int d = add(layer, sheetNumber(sheet));
+		data[d] = BLIT;
+		data[d + 1] = x;
+		data[d + 2] = y;
+		data[d + 3] = texX;
+		data[d + 4] = texY;
+		data[d + 5] = texWidth;
+		data[d + 6] = texHeight;
+	}
+	
+	/**
+	 * Add a command's sort key, growing the arrays if they are full.
+	 * @param layer The layer of the command
+	 * @param sheet The number of the command's sheet
+	 * @return The index of the command's ints in the data array
+	 */
+	private int add(int layer, int sheet) {
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			data = Arrays.copyOf(data, count * 2 * STRIDE);
+		}
+		keys[count] = (long) layer << LAYER_SHIFT | (long) sheet << SHEET_SHIFT | count;
+		return count++ * STRIDE;
+	}
+	
+	/**
+	 * Get the number of a sheet, numbering it if it is new in this frame.
+	 * Sheets are few (the sprite sheet and the level's visible chunks), so
+	 * they are searched from the most recently numbered.
+	 * @param sheet The sheet
+	 * @return The sheet's number
+	 */
+	private int sheetNumber(Sprite sheet) {
+		for (int i = sheetCount - 1; i > 0; i--) {
+			if (sheets[i] == sheet) {
+				return i;
+			}
+		}
+		if (sheetCount == sheets.length) {
+			sheets = Arrays.copyOf(sheets, sheetCount * 2);
+		}
+		sheets[sheetCount] = sheet;
+		return sheetCount++;
+	}
+}
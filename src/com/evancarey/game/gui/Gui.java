@@ -3,12 +3,20 @@ package com.evancarey.game.gui;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.evancarey.game.FrameSnapshot;
 import com.evancarey.game.GameArea;
 import com.evancarey.game.Global;
-import com.evancarey.game.gfx.Renderer;
 import com.evancarey.game.sound.Sound;
 
-/** The Game's GUI */
+/**
+ * The Game's GUI.
+ * Frames are drawn from copies of the visible components (see capture()),
+ * which are taken again only when a component changed (see
+ * GuiComponent.isDirty()), so for menus and the HUD rarely. The copies are
+ * never changed, so a frame can be drawn from them on another thread while
+ * the GUI carries on, and a GuiLayer only has to redraw its pre-rendered
+ * layer when it is given new copies.
+ */
 public class Gui {
 	
 	// Label colors
@@ -39,8 +47,18 @@ public class Gui {
 	private GuiComponent healthLabel;
 	//private GuiComponent healthSprite;
 	
+	/** The size of the screen the components are laid out for */
+	private int width;
+	private int height;
+	
 	private int menu;
 	private int selected;
+	/** The HP and coins shown by the health label, so its text is only rebuilt when they change */
+	private int shownHP;
+	private int shownCoins;
+	
+	/** Copies of the visible components as they were last captured (null until first captured) */
+	private List<GuiComponent> captured;
 	
 	/**
 	 * Constructor to initialize the Gui to the start menu.
@@ -49,36 +67,41 @@ public class Gui {
 		components = new ArrayList<GuiComponent>();
 		//healthBar = new ArrayList<GuiComponent>(10);
 		
+		width = Global.WIDTH;
+		height = Global.HEIGHT;
 		menu = 0;
 		selected = 0;
+		shownHP = -1;
+		shownCoins = -1;
 		
 		createComponents();
 		addComponents();
+		layout();
 	}
 	
 	/**
-	 * Create the Gui components.
+	 * Create the Gui components. They are positioned by layout().
 	 */
 	private void createComponents() {
 		
-		rectanglePanel = new GuiComponentRectangle(0, 0, Global.WIDTH, Global.HEIGHT).setVisible(true);
+		rectanglePanel = new GuiComponentRectangle(0, 0, width, height).setVisible(true);
 		
 		// start menu
-		titleLabel = new GuiComponentLabel(Global.WIDTH / 2 - 36, Global.HEIGHT / 6, Global.NAME, 0xffff00);
-		startLabel = new GuiComponentLabel(Global.WIDTH / 2 - 30, Global.HEIGHT / 4 * 3, "Start Game", BRIGHT);
-		helpLabel = new GuiComponentLabel(Global.WIDTH / 2 - 12, Global.HEIGHT / 4 * 3 + 15, "Help", DULL);
-		quitLabel = new GuiComponentLabel(Global.WIDTH / 2 - 27, Global.HEIGHT / 4 * 3 + 30, "Quit Game", DULL);
+		titleLabel = new GuiComponentLabel(0, 0, Global.NAME, 0xffff00);
+		startLabel = new GuiComponentLabel(0, 0, "Start Game", BRIGHT);
+		helpLabel = new GuiComponentLabel(0, 0, "Help", DULL);
+		quitLabel = new GuiComponentLabel(0, 0, "Quit Game", DULL);
 		labels = new GuiComponent[] {startLabel, helpLabel, quitLabel};
 		
-		pauseLabel = new GuiComponentLabel(Global.WIDTH / 2 - 18, Global.HEIGHT / 2 - 8, "Paused", BRIGHT).setVisible(false);
+		pauseLabel = new GuiComponentLabel(0, 0, "Paused", BRIGHT).setVisible(false);
 		
-		instructionsLabel = new GuiComponentLabel(Global.WIDTH / 8, Global.HEIGHT / 6, "Controls\n--------\n\nMove   - Arrows\nJump   - Space\nPause  - Esc", BRIGHT).setVisible(false);
+		instructionsLabel = new GuiComponentLabel(0, 0, "Controls\n--------\n\nMove   - Arrows\nJump   - Space\nPause  - Esc", BRIGHT).setVisible(false);
 		
-		backLabel = new GuiComponentLabel(32, Global.HEIGHT - 32, "Press Z to go back", BRIGHT).setVisible(false);
-		continueLabel = new GuiComponentLabel(32, Global.HEIGHT - 32, "Press Z to continue", BRIGHT).setVisible(false);
+		backLabel = new GuiComponentLabel(0, 0, "Press Z to go back", BRIGHT).setVisible(false);
+		continueLabel = new GuiComponentLabel(0, 0, "Press Z to continue", BRIGHT).setVisible(false);
 
-		winLabel = new GuiComponentLabel(Global.WIDTH / 2 - 75, Global.HEIGHT / 2 - 30, "Congratulations! You won!", BRIGHT).setVisible(false);
-		loseLabel = new GuiComponentLabel(Global.WIDTH / 2 - 27, Global.HEIGHT / 2 - 30, "You died!", BRIGHT).setVisible(false);
+		winLabel = new GuiComponentLabel(0, 0, "Congratulations! You won!", BRIGHT).setVisible(false);
+		loseLabel = new GuiComponentLabel(0, 0, "You died!", BRIGHT).setVisible(false);
 		
 		// hp
 		healthLabel = new GuiComponentLabel(8, 8, "HP:", 0xffff00).setVisible(false);
@@ -109,6 +132,41 @@ public class Gui {
 //		components.addAll(healthBar);
 	}
 	
+	/**
+	 * Position the components for the size of the screen.
+	 */
+	private void layout() {
+		rectanglePanel.setWidth(width);
+		rectanglePanel.setHeight(height);
+		
+		titleLabel.setPosition(width / 2 - 36, height / 6);
+		startLabel.setPosition(width / 2 - 30, height / 4 * 3);
+		helpLabel.setPosition(width / 2 - 12, height / 4 * 3 + 15);
+		quitLabel.setPosition(width / 2 - 27, height / 4 * 3 + 30);
+		
+		pauseLabel.setPosition(width / 2 - 18, height / 2 - 8);
+		instructionsLabel.setPosition(width / 8, height / 6);
+		backLabel.setPosition(32, height - 32);
+		continueLabel.setPosition(32, height - 32);
+		
+		winLabel.setPosition(width / 2 - 75, height / 2 - 30);
+		loseLabel.setPosition(width / 2 - 27, height / 2 - 30);
+	}
+	
+	/**
+	 * Set the size of the screen the gui is drawn on, laying the components
+	 * out again if it changed (see ResolutionController).
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 */
+	public void setSize(int width, int height) {
+		if (width != this.width || height != this.height) {
+			this.width = width;
+			this.height = height;
+			layout();
+		}
+	}
+	
 	/**
 	 * Update the game area with the current gui selection.
 	 * @param area The GameArea that contains the gui
@@ -134,7 +192,13 @@ public class Gui {
 				trigger(area);
 			}
 		} else { // In game
-			((GuiComponentLabel) healthLabel).setText("HP:" + area.getLevel().getPlayer().getHP() + "\n$" + area.getLevel().getPlayer().getItems().size());
+			int hp = area.getLevel().getPlayer().getHP();
+			int coins = area.getLevel().getPlayer().getItems().size();
+			if (hp != shownHP || coins != shownCoins) {
+				((GuiComponentLabel) healthLabel).setText("HP:" + hp + "\n$" + coins);
+				shownHP = hp;
+				shownCoins = coins;
+			}
 //			for (int j = 0; j < healthBar.size() /*area.getLevel().getPlayer().getHP()*/; j++) {
 //				if (j < area.getLevel().getPlayer().getHP()) {
 //					healthBar.get(j).setVisible(true);
@@ -264,18 +328,46 @@ public class Gui {
 	}
 	
 	/**
-	 * Draw the gui components.
-	 * @param renderer The renderer responsible for drawing the gui
+	 * Add the visible gui components to a frame snapshot. The snapshot gets
+	 * copies, which are taken again only when a component changed.
+	 * @param snapshot The snapshot the components are added to
+	 */
+	public void capture(FrameSnapshot snapshot) {
+		if (captured == null || isDirty()) {
+			List<GuiComponent> visible = new ArrayList<GuiComponent>();
+			for (int i = 0; i < components.size(); i++) {
+				if (components.get(i).isVisible()) {
+					visible.add(components.get(i).copy());
+				}
+				components.get(i).clearDirty();
+			}
+			captured = visible;
+		}
+		snapshot.setGui(captured);
+	}
+	
+	/**
+	 * Check if the GUI hides everything under it, so the level need not be
+	 * drawn.
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 * @return True if an opaque panel covers the screen
 	 */
-	public void draw(Renderer renderer) {
+	public boolean coversScreen(int width, int height) {
+		return rectanglePanel.covers(width, height);
+	}
+	
+	/**
+	 * Check if any component changed since the components were captured.
+	 * @return True if the copies are out of date
+	 */
+	private boolean isDirty() {
 		for (int i = 0; i < components.size(); i++) {
-			if (components.get(i).isVisible()) {
-				components.get(i).draw(renderer);
+			if (components.get(i).isDirty()) {
+				return true;
 			}
 		}
-//		for (GuiComponent g : healthBar) {
-//			if (g.isVisible()) g.draw(renderer);
-//		}
+		return false;
 	}
 	
 	/**
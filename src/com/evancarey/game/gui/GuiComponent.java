@@ -2,13 +2,19 @@ package com.evancarey.game.gui;
 
 import com.evancarey.game.GameArea;
 import com.evancarey.game.gfx.Renderer;
-/** Abstract class for a component of the game's GUI */
-public abstract class GuiComponent {
+/**
+ * Abstract class for a component of the game's GUI.
+ * A component is marked dirty whenever it changes in a way that changes
+ * what is drawn, so the GUI only copies it for drawing then (see Gui).
+ */
+public abstract class GuiComponent implements Cloneable {
 	
 	protected int x;
 	protected int y;
 
 	protected boolean visible;
+	/** Whether the component changed since the GUI last captured it */
+	protected boolean dirty;
 
 	/**
 	 * Construct a gui component.
@@ -20,6 +26,7 @@ public abstract class GuiComponent {
 		this.y = y;
 
 		visible = true;
+		dirty = true;
 	}
 
 	public void update(GameArea area) {
@@ -38,8 +45,11 @@ public abstract class GuiComponent {
 	 * @param y The absolute y position for the component
 	 */
 	public void setPosition(int x, int y) {
-		this.x = x;
-		this.y = y;
+		if (x != this.x || y != this.y) {
+			this.x = x;
+			this.y = y;
+			dirty = true;
+		}
 	}
 
 	/**
@@ -48,7 +58,10 @@ public abstract class GuiComponent {
 	 * @return The component
 	 */
 	public GuiComponent setVisible(boolean visible) {
-		this.visible = visible;
+		if (visible != this.visible) {
+			this.visible = visible;
+			dirty = true;
+		}
 		return this;
 	}
 
@@ -59,4 +72,32 @@ public abstract class GuiComponent {
 	public boolean isVisible() {
 		return visible;
 	}
+	
+	/**
+	 * Check if the component changed since it was last captured.
+	 * @return True if the component needs copying again
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+	
+	/**
+	 * Copy the component as it is now, so it can be drawn while the
+	 * original carries on changing.
+	 * @return The copy
+	 */
+	public GuiComponent copy() {
+		try {
+			return (GuiComponent) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Mark the component as captured in its current state (see Gui.capture()).
+	 */
+	public void clearDirty() {
+		dirty = false;
+	}
 }
@@ -1,5 +1,7 @@
 package com.evancarey.game.gui;
 
+import java.util.Objects;
+
 import com.evancarey.game.gfx.Renderer;
 
 /** Class for a gui component with text */
@@ -35,7 +37,10 @@ public class GuiComponentLabel extends GuiComponent {
 	 * @param text The text for the label
 	 */
 	public void setText(String text) {
-		this.text = text;
+		if (!Objects.equals(text, this.text)) {
+			this.text = text;
+			dirty = true;
+		}
 	}
 
 	/**
@@ -43,7 +48,10 @@ public class GuiComponentLabel extends GuiComponent {
 	 * @param color The color for the text
 	 */
 	public void setColor(int color) {
-		this.color = color;
+		if (color != this.color) {
+			this.color = color;
+			dirty = true;
+		}
 	}
 	
 	/**
@@ -53,7 +61,7 @@ public class GuiComponentLabel extends GuiComponent {
 	 */
 	@Override
 	public GuiComponentLabel setVisible(boolean visible) {
-		this.visible = visible;
+		super.setVisible(visible);
 		return this;
 	}
 
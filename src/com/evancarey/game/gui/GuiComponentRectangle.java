@@ -36,15 +36,32 @@ public class GuiComponentRectangle extends GuiComponent {
 	 */
 	@Override
 	public GuiComponentRectangle setVisible(boolean visible) {
-		this.visible = visible;
+		super.setVisible(visible);
 		return this;
 	}
 	
+	/**
+	 * Check if the rectangle is visible and covers the whole of an area
+	 * (it is always drawn opaque).
+	 * @param width The width of the area
+	 * @param height The height of the area
+	 * @return True if nothing under the rectangle can be seen
+	 */
+	public boolean covers(int width, int height) {
+		return visible && x <= 0 && y <= 0 && x + this.width >= width && y + this.height >= height;
+	}
+	
 	public void setWidth(int width) {
-		this.width = width;
+		if (width != this.width) {
+			this.width = width;
+			dirty = true;
+		}
 	}
 	
 	public void setHeight(int height) {
-		this.height = height;
+		if (height != this.height) {
+			this.height = height;
+			dirty = true;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.evancarey.game.gui;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.evancarey.game.gfx.Renderer;
+import com.evancarey.game.gfx.Sprite;
+import com.evancarey.game.gfx.SpriteBatch;
+
+/**
+ * The GUI, pre-rendered into an off-screen layer.
+ * The visible components are drawn into the layer, compiled into opaque
+ * spans like the level's tile chunks, and each frame only blits the layer.
+ * The layer is redrawn only when it is given different components (see
+ * Gui.capture()), which for menus and the HUD is rarely. Components must
+ * not be drawn in Sprite.TRANSPARENT, which marks the layer's empty pixels.
+ */
+public class GuiLayer {
+	
+	private static final int[] LAYER_TRANSPARENT = {Sprite.TRANSPARENT};
+	
+	/** The components the layer was drawn from */
+	private List<GuiComponent> components;
+	/** The components, pre-rendered (null until first drawn) */
+	private Sprite layer;
+	/** Scratch bitmap (and renderer) the layer is drawn in */
+	private int[] layerPixels;
+	private Renderer layerRenderer;
+	
+	/**
+	 * Draw the gui components, redrawing the layer if they changed.
+	 * @param batch The batch the layer is added to
+	 * @param components The visible components
+	 */
+	public void draw(SpriteBatch batch, List<GuiComponent> components) {
+		Renderer renderer = batch.getRenderer();
+		if (layer == null || layer.getWidth() != renderer.getWidth() || layer.getHeight() != renderer.getHeight()
+				|| components != this.components) {
+			drawLayer(renderer, components);
+		}
+		batch.drawImage(SpriteBatch.LAYER_GUI, layer, 0, 0);
+	}
+	
+	/**
+	 * Draw the components into a new layer.
+	 * @param renderer The renderer whose sprite sheets are used
+	 * @param components The visible components
+	 */
+	private void drawLayer(Renderer renderer, List<GuiComponent> components) {
+		int width = renderer.getWidth();
+		int height = renderer.getHeight();
+		if (layerPixels == null || layerPixels.length != width * height) {
+			layerPixels = new int[width * height];
+			layerRenderer = renderer.createTarget(layerPixels, width, height);
+		}
+		Arrays.fill(layerPixels, Sprite.TRANSPARENT);
+		for (int i = 0; i < components.size(); i++) {
+			components.get(i).draw(layerRenderer);
+		}
+		layer = new Sprite(layerPixels, width, height, LAYER_TRANSPARENT);
+		this.components = components;
+	}
+}
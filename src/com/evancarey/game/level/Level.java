@@ -2,31 +2,55 @@ package com.evancarey.game.level;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.imageio.ImageIO;
 
+import com.evancarey.game.FrameSnapshot;
 import com.evancarey.game.Game;
 import com.evancarey.game.GameArea;
 import com.evancarey.game.Global;
+import com.evancarey.game.debug.LevelLoadEvent;
 import com.evancarey.game.entities.Enemy;
 import com.evancarey.game.entities.Entity;
+import com.evancarey.game.entities.EntityGrid;
 import com.evancarey.game.entities.Goal;
 import com.evancarey.game.entities.Item;
 import com.evancarey.game.entities.Player;
-import com.evancarey.game.gfx.Renderer;
 import com.evancarey.game.gfx.Sprite;
 import com.evancarey.game.level.tiles.Tile;
 
 /** Class representing a game level */
 public class Level {
 	
-	private Tile[] tiles;
+	/** The number of rows of tiles in each band built in parallel */
+	private static final int BAND_ROWS = 16;
+	
 	private int width;
 	private int height;
+	/** The ID of each tile, indexed by x + y * width */
+	private short[] tileIDs;
+	/** Which tiles are solid */
+	private BitSet solid;
+	/** Each tile's sprite and grass, packed by Tile.getVariant() */
+	private byte[] tileVariants;
+	/** Counts the changes to the tiles, so pre-rendered tiles can tell they are out of date (see TileChunkCache) */
+	private int tileRevision;
+	/** Generator for the tiles' random details (e.g. grass), seeded so a level always builds the same */
+	private SplittableRandom random;
 	
 	/** The entities in the level */
 	private List<Entity> entities;
+	/** Broadphase grid of the entities, for overlap queries */
+	private EntityGrid grid;
+	/** Lists reused for the results of grid queries */
+	private List<Entity> nearbyEntities;
+	private List<Entity> visibleEntities;
 	private Player player;
 	
 	@SuppressWarnings("unused")
@@ -38,64 +62,221 @@ public class Level {
 	private int cameraX;
 	/** The y position of the camera */
 	private int cameraY;
+	/** The size of the screen the level was last drawn on, which the camera is centered in */
+	private int viewWidth;
+	private int viewHeight;
 
 	/**
-	 * Construct a new level from an image.
-	 * @param imagePath The file path of the level image
+	 * Construct a new level from a file: either a binary level file (see
+	 * LevelFile) or a PNG image. Tiles built from an image get random details.
+	 * @param path The resource path of the level file or image
+	 */
+	public Level(String path) {
+		this(path, new SplittableRandom().nextLong());
+	}
+	
+	/**
+	 * Construct a new level from a file: either a binary level file (see
+	 * LevelFile) or a PNG image.
+	 * @param path The resource path of the level file or image
+	 * @param seed The seed for the tiles' random details, so the same seed
+	 *             always builds the same level
 	 */
-	public Level(String imagePath) {
+	public Level(String path, long seed) {
+		LevelLoadEvent event = LevelLoadEvent.start();
 
 		entities = new ArrayList<Entity>();
+		nearbyEntities = new ArrayList<Entity>();
+		visibleEntities = new ArrayList<Entity>();
 		player = null;
 		finished = false;
 		cameraX = 0;
 		cameraY = 0;
+		viewWidth = Global.WIDTH;
+		viewHeight = Global.HEIGHT;
+		random = new SplittableRandom(seed);
 		
 		try { // load level from file
-			Sprite level = new Sprite(ImageIO.read(Game.class.getResource(imagePath)));
-			width = level.getWidth();
-			height = level.getHeight();
-			tiles = new Tile[width * height];
+			if (path.endsWith(LevelFile.EXTENSION)) {
+				LevelFile.read(this, path);
+			} else {
+				loadImage(path);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		tileRevision = 0;
+		
+		if (event != null && event.shouldCommit()) {
+			event.path = path;
+			event.width = width;
+			event.height = height;
+			event.entityCount = entities.size();
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Load the level from an image, where each pixel's color is a tile or an
+	 * entity's spawn point, and build the tiles.
+	 * The image is split into bands of rows that are classified and then built
+	 * in parallel. Each band gets its own generator, split from the level's
+	 * in band order, so the result does not depend on the number of threads.
+	 * @param imagePath The resource path of the level image
+	 * @throws IOException If the image cannot be read
+	 */
+	private void loadImage(String imagePath) throws IOException {
+		Sprite level = new Sprite(ImageIO.read(Game.class.getResource(imagePath)));
+		setTiles(level.getWidth(), level.getHeight(), new short[level.getWidth() * level.getHeight()],
+				new BitSet(level.getWidth() * level.getHeight()), new byte[level.getWidth() * level.getHeight()]);
+		int[] pixels = level.getPixels();
+		int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+		
+		// classify the pixels into tiles and find the spawn points
+		int[][] spawns = new int[bands][];
+		ForkJoinPool.commonPool().invoke(new BuildBands(this, pixels, spawns, null, 0, bands));
+		for (int i = 0; i < tileIDs.length; i++) {
+			if (tileIDs[i] == Tile.DIRT) {
+				solid.set(i);
+			}
+		}
+		
+		// spawn the entities in column order, as the level has always done
+		int count = 0;
+		for (int b = 0; b < bands; b++) {
+			count += spawns[b].length;
+		}
+		int[] order = new int[count];
+		count = 0;
+		for (int b = 0; b < bands; b++) {
+			for (int i = 0; i < spawns[b].length; i++) {
+				int x = spawns[b][i] % width;
+				int y = spawns[b][i] / width;
+				order[count++] = x * height + y;
+			}
+		}
+		Arrays.sort(order);
+		for (int i = 0; i < order.length; i++) {
+			int x = order[i] / height;
+			int y = order[i] % height;
+			int levelPixel = pixels[x + y * width];
+			if (levelPixel == 0x00ff00) { // green represents a player's spawn point
+				spawnEntity(new Player(x * 16, y * 16));
+			}
+			if (levelPixel == 0x0000ff) { // blue represents the goal/end of the level
+				spawnEntity(new Goal(x * 16, y * 16));
+			}
 			
-			for (int x = 0; x < width; x++) {
-				for (int y = 0; y < height; y++) {
-					int levelPixel = level.getPixel(x, y);
-					tiles[x + y * width] = new Tile(x, y, 0, false);
+			// enemies not yet implemented
+			if (levelPixel == 0xff0000) { // red represents an enemy's spawn point
+				//spawnEntity(new Enemy(x * 16, y * 16));
+			}
+			if (levelPixel == 0xffff00) { // yellow represents an item
+				spawnEntity(new Item(x * 16, y * 16));
+			}
+		}
+		
+		// build the level tiles
+		SplittableRandom[] randoms = new SplittableRandom[bands];
+		for (int b = 0; b < bands; b++) {
+			randoms[b] = random.split();
+		}
+		ForkJoinPool.commonPool().invoke(new BuildBands(this, null, null, randoms, 0, bands));
+	}
+	
+	/**
+	 * Task that processes a range of bands of rows, splitting it in half
+	 * until each task has one band. It either classifies the image's pixels
+	 * (when given the pixels) or builds the tiles (when given the generators).
+	 */
+	private static class BuildBands extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private Level level;
+		private int[] pixels;
+		private int[][] spawns;
+		private SplittableRandom[] randoms;
+		private int band0;
+		private int band1;
+		
+		/**
+		 * Construct a task for a range of bands.
+		 * @param level The level being built
+		 * @param pixels The level image, or null when building tiles
+		 * @param spawns Filled with each band's spawn points (as x + y * width)
+		 * @param randoms Each band's generator, or null when classifying
+		 * @param band0 The first band
+		 * @param band1 The band after the last
+		 */
+		public BuildBands(Level level, int[] pixels, int[][] spawns, SplittableRandom[] randoms, int band0, int band1) {
+			this.level = level;
+			this.pixels = pixels;
+			this.spawns = spawns;
+			this.randoms = randoms;
+			this.band0 = band0;
+			this.band1 = band1;
+		}
+		
+		@Override
+		protected void compute() {
+			if (band1 - band0 > 1) {
+				int mid = (band0 + band1) >>> 1;
+				invokeAll(new BuildBands(level, pixels, spawns, randoms, band0, mid),
+						new BuildBands(level, pixels, spawns, randoms, mid, band1));
+				return;
+			}
+			int width = level.width;
+			int y1 = Math.min((band0 + 1) * BAND_ROWS, level.height);
+			if (pixels != null) {
+				int[] found = new int[0];
+				int count = 0;
+				for (int i = band0 * BAND_ROWS * width; i < y1 * width; i++) {
+					int levelPixel = pixels[i];
 					
 					// background (not yet implemented)
 					
 					// tiles
 					if (levelPixel == 0x000000) { // black represents a basic solid dirt tile
-						tiles[x + y * width] = new Tile(x, y, 1, true);
-					}
-					
-					// entities
-					if (levelPixel == 0x00ff00) { // green represents a player's spawn point
-						spawnEntity(new Player(x * 16, y * 16));
-					}
-					if (levelPixel == 0x0000ff) { // blue represents the goal/end of the level
-						spawnEntity(new Goal(x * 16, y * 16));
+						level.tileIDs[i] = Tile.DIRT;
 					}
 					
-					// enemies and items not yet implemented
-					if (levelPixel == 0xff0000) { // red represents an enemy's spawn point
-						//spawnEntity(new Enemy(x * 16, y * 16));
+					// entities, spawned once every band is done
+					if (levelPixel == 0x00ff00 || levelPixel == 0x0000ff || levelPixel == 0xff0000 || levelPixel == 0xffff00) {
+						if (count == found.length) {
+							found = Arrays.copyOf(found, count * 2 + 4);
+						}
+						found[count++] = i;
 					}
-					if (levelPixel == 0xffff00) { // yellow represents an item
-						spawnEntity(new Item(x * 16, y * 16));
+				}
+				spawns[band0] = Arrays.copyOf(found, count);
+			} else {
+				for (int y = band0 * BAND_ROWS; y < y1; y++) {
+					for (int x = 0; x < width; x++) {
+						level.tileVariants[x + y * width] = (byte) Tile.build(level, x, y, randoms[band0]);
 					}
-					
 				}
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		// build the level tiles
-		for (int i = 0; i < tiles.length; i++) {
-			tiles[i].build(this);
 		}
 	}
 	
+	/**
+	 * Set the level's size and tile data, and create an empty entity grid to match.
+	 * @param width The width of the level in tiles
+	 * @param height The height of the level in tiles
+	 * @param tileIDs The ID of each tile
+	 * @param solid Which tiles are solid
+	 * @param tileVariants The variant of each tile
+	 */
+	void setTiles(int width, int height, short[] tileIDs, BitSet solid, byte[] tileVariants) {
+		this.width = width;
+		this.height = height;
+		this.tileIDs = tileIDs;
+		this.solid = solid;
+		this.tileVariants = tileVariants;
+		grid = new EntityGrid(width * 16, height * 16);
+	}
+	
 	/**
 	 * Update the level.
 	 * @param area The GameArea containing the level
@@ -114,15 +295,15 @@ public class Level {
 	private void updateTiles(GameArea area) {
 		int cx = cameraX / 16;
 		int cy = cameraY / 16;
-		int cw = Global.WIDTH / 16;
-		int ch = Global.HEIGHT / 16;
+		int cw = viewWidth / 16;
+		int ch = viewHeight / 16;
 		
 		for (int x = cx - 1; x <= cx + cw; x++) {
 			for (int y = cy - 1; y <= cy + ch; y++) {
 				if (x < 0 || x >= width || y < 0 || y >= height) {
 					return;
 				}
-				tiles[x + y * width].update(area);
+				Tile.update(area, x, y);
 			}
 		}
 	}
@@ -132,7 +313,9 @@ public class Level {
 	 */
 	private void updateEntities(GameArea area) {
 		for (int i = 0; i < entities.size(); i++) {
+			entities.get(i).savePosition();
 			entities.get(i).update(area);
+			grid.update(entities.get(i));
 			
 			// if entity is not alive, remove it from the list
 			if (!entities.get(i).isAlive()) {
@@ -145,6 +328,7 @@ public class Level {
 				if (entities.get(i) instanceof Item) {
 					// items not yet implemented
 				}
+				grid.remove(entities.get(i));
 				entities.remove(i);
 				i--;
 			}
@@ -157,21 +341,37 @@ public class Level {
 	 */
 	private void updateCamera(GameArea area) {
 		if (player != null) {
-			cameraX = (int) player.getX() - Global.WIDTH / 2;
-			cameraY = (int) player.getY() - Global.HEIGHT / 2;
+			cameraX = (int) player.getX() - viewWidth / 2;
+			cameraY = (int) player.getY() - viewHeight / 2;
 		}
 	}
 	
 	/**
-	 * Draw the portion of the level currently on screen.
-	 * @param renderer The renderer responsible for drawing the level
+	 * Add the portion of the level currently on screen to a frame snapshot.
+	 * The screen may be any size (see ResolutionController); the camera is
+	 * centered in it.
+	 * @param snapshot The snapshot the level's entities are added to
 	 */
-	public void draw(Renderer renderer) {
-		for (int i = 0; i < tiles.length; i ++) {
-			tiles[i].draw(renderer, -cameraX, -cameraY);
+	public void capture(FrameSnapshot snapshot) {
+		viewWidth = snapshot.getWidth();
+		viewHeight = snapshot.getHeight();
+		// the camera follows the player between ticks too, so the two move together
+		if (player != null) {
+			snapshot.setLevel(this, tileRevision, player.getPrevX(), player.getPrevY(), player.getX(), player.getY());
+		} else {
+			snapshot.setLevel(this, tileRevision, cameraX + viewWidth / 2, cameraY + viewHeight / 2,
+					cameraX + viewWidth / 2, cameraY + viewHeight / 2);
 		}
-		for (int i = 0; i < entities.size(); i ++) {
-			entities.get(i).draw(renderer, -cameraX, -cameraY);
+		
+		// the frame may be drawn with the camera anywhere between the last two ticks, and
+		// entity sprites are 16x16 and may start up to 16 pixels before their collision bounds
+		int x0 = Math.min(snapshot.getCameraX(0.0), snapshot.getCameraX(1.0));
+		int y0 = Math.min(snapshot.getCameraY(0.0), snapshot.getCameraY(1.0));
+		int x1 = Math.max(snapshot.getCameraX(0.0), snapshot.getCameraX(1.0)) + viewWidth;
+		int y1 = Math.max(snapshot.getCameraY(0.0), snapshot.getCameraY(1.0)) + viewHeight;
+		grid.queryUnordered(x0 - 16, y0 - 16, x1 + 16, y1 + 16, visibleEntities);
+		for (int i = 0; i < visibleEntities.size(); i ++) {
+			visibleEntities.get(i).capture(snapshot);
 		}
 	}
 	
@@ -192,7 +392,19 @@ public class Level {
 		if (e instanceof Goal) {
 			goal = (Goal) e;
 		}
+		e.savePosition();
 		entities.add(e);
+		grid.add(e);
+	}
+	
+	/**
+	 * Draw every entity at its current position until the next tick, e.g.
+	 * while the game is paused.
+	 */
+	public void resetInterpolation() {
+		for (int i = 0; i < entities.size(); i++) {
+			entities.get(i).savePosition();
+		}
 	}
 	
 	/**
@@ -212,6 +424,59 @@ public class Level {
 		return finished;
 	}
 	
+	/**
+	 * Replace a tile, rebuilding it and its neighbours so their sprites match.
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
+	 * @param id The new tile's ID
+	 * @param solid Whether the new tile is solid
+	 */
+	public void setTile(int x, int y, int id, boolean solid) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return;
+		}
+		tileIDs[x + y * width] = (short) id;
+		this.solid.set(x + y * width, solid);
+		rebuildTile(x, y);
+		rebuildTile(x + 1, y);
+		rebuildTile(x, y - 1);
+		rebuildTile(x - 1, y);
+		rebuildTile(x, y + 1);
+	}
+	
+	/**
+	 * Build a tile again and drop its pre-rendered chunk.
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
+	 */
+	private void rebuildTile(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return;
+		}
+		tileVariants[x + y * width] = (byte) Tile.build(this, x, y, random);
+		invalidateTile(x, y);
+	}
+	
+	/**
+	 * Mark a tile as changed, so the pre-rendered tiles are drawn again (all
+	 * of them, as tiles rarely change). Must be called whenever a tile's
+	 * appearance changes.
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
+	 */
+	public void invalidateTile(int x, int y) {
+		tileRevision++;
+	}
+	
+	/**
+	 * Get the number of times the tiles have changed, so pre-rendered tiles
+	 * can tell they are out of date.
+	 * @return The tile revision
+	 */
+	public int getTileRevision() {
+		return tileRevision;
+	}
+	
 	/**
 	 * Get the ID of a tile.
 	 * @param x The x position of the tile
@@ -222,15 +487,51 @@ public class Level {
 		if (x < 0 || x >= width || y < 0 || y >= height) {
 			return -1;
 		}
-		return tiles[x + y * width].getID();
+		return tileIDs[x + y * width];
+	}
+	
+	/**
+	 * Get the variant (sprite and grass) of a tile.
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
+	 * @return The tile's variant, packed by Tile.getVariant()
+	 */
+	public int getTileVariant(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return Tile.NO_VARIANT;
+		}
+		return tileVariants[x + y * width];
+	}
+	
+	/**
+	 * Check if a tile is solid.
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
+	 * @return True if the tile is solid (false outside the level)
+	 */
+	public boolean isSolid(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return false;
+		}
+		return solid.get(x + y * width);
+	}
+	
+	/**
+	 * Get the set of solid tiles, indexed by x + y * width.
+	 * @return The solid tiles
+	 */
+	BitSet getSolidTiles() {
+		return solid;
 	}
 	
 	/**
-	 * Get the tiles in the level.
-	 * @return The array of tiles
+	 * Get a view of a tile in the level.
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
+	 * @return The tile
 	 */
-	public Tile[] getTiles() {
-		return tiles;
+	public Tile getTile(int x, int y) {
+		return new Tile(this, x, y);
 	}
 	
 	/**
@@ -241,6 +542,50 @@ public class Level {
 		return entities;
 	}
 	
+	/**
+	 * Get the entities that might overlap an area, using the level's grid.
+	 * The list is reused by the next call, so it must not be kept.
+	 * @param x0 The left of the area
+	 * @param y0 The top of the area
+	 * @param x1 The right of the area
+	 * @param y1 The bottom of the area
+	 * @return The nearby entities, in the same order as getEntities()
+	 */
+	public List<Entity> getNearbyEntities(double x0, double y0, double x1, double y1) {
+		grid.query(x0, y0, x1, y1, nearbyEntities);
+		return nearbyEntities;
+	}
+	
+	/**
+	 * Get the number of entities drawn in the last frame (or near enough to
+	 * the screen that they might have been).
+	 * @return The number of visible entities
+	 */
+	public int getVisibleEntityCount() {
+		return visibleEntities.size();
+	}
+	
+	/**
+	 * Count the non-empty tiles on screen. This loops over the tiles, so it
+	 * is meant for diagnostics rather than every frame.
+	 * @return The number of visible tiles
+	 */
+	public int countVisibleTiles() {
+		int x0 = Math.max(Math.floorDiv(cameraX, 16), 0);
+		int y0 = Math.max(Math.floorDiv(cameraY, 16), 0);
+		int x1 = Math.min(Math.floorDiv(cameraX + viewWidth - 1, 16), width - 1);
+		int y1 = Math.min(Math.floorDiv(cameraY + viewHeight - 1, 16), height - 1);
+		int count = 0;
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				if (tileIDs[x + y * width] != Tile.EMPTY) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * Get the player.
 	 * @return The player
@@ -0,0 +1,230 @@
+package com.evancarey.game.level;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+import com.evancarey.game.Game;
+import com.evancarey.game.entities.Enemy;
+import com.evancarey.game.entities.Entity;
+import com.evancarey.game.entities.Goal;
+import com.evancarey.game.entities.Item;
+import com.evancarey.game.entities.Player;
+
+/**
+ * The binary level format.
+ * A level file holds a level that has already been built, so loading one
+ * is a few bulk copies instead of decoding a PNG and autotiling every tile.
+ * All values are big-endian:
+ * <pre>
+ * int     magic ("PLVL")
+ * int     version
+ * int     width, height
+ * short[] tile IDs (width * height, row by row)
+ * byte[]  tile variants (width * height, see Tile.getVariant())
+ * int     number of longs in the solid bit set, then the longs
+ * int     number of entities, then for each: byte type, int x, int y
+ * </pre>
+ */
+public class LevelFile {
+	
+	/** File extension of binary levels */
+	public static final String EXTENSION = ".lvl";
+	
+	private static final int MAGIC = 0x504c564c; // "PLVL"
+	private static final int VERSION = 1;
+	
+	// Entity types
+	private static final int PLAYER = 0;
+	private static final int GOAL = 1;
+	private static final int ITEM = 2;
+	private static final int ENEMY = 3;
+	
+	/**
+	 * Load a binary level into an empty level. Files on disk are memory-mapped;
+	 * other resources (e.g. inside a jar) are read into memory first. Every
+	 * size read from the file is checked against what is left of it before
+	 * anything is allocated, so a truncated or corrupt file is reported as
+	 * an IOException.
+	 * @param level The level to fill
+	 * @param path The resource path of the level file
+	 * @throws IOException If the file cannot be read or is not a level file
+	 */
+	static void read(Level level, String path) throws IOException {
+		URL url = Game.class.getResource(path);
+		if (url == null) {
+			throw new IOException("Level not found: " + path);
+		}
+		ByteBuffer buffer;
+		if (url.getProtocol().equals("file")) {
+			FileChannel channel;
+			try {
+				channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ);
+			} catch (URISyntaxException e) {
+				throw new IOException(e);
+			}
+			try {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				channel.close();
+			}
+		} else {
+			InputStream in = url.openStream();
+			try {
+				buffer = ByteBuffer.wrap(in.readAllBytes());
+			} finally {
+				in.close();
+			}
+		}
+		
+		require(buffer, 8, path, "header");
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(path + " is not a level file");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException(path + " has unsupported version " + version);
+		}
+		require(buffer, 8, path, "level size");
+		int width = buffer.getInt();
+		int height = buffer.getInt();
+		if (width <= 0 || height <= 0) {
+			throw new IOException(path + ": invalid level size " + width + "x" + height);
+		}
+		require(buffer, (long) width * height * 3 + 4, path, "tiles"); // a short and a byte per tile
+		
+		short[] tileIDs = new short[width * height];
+		buffer.asShortBuffer().get(tileIDs);
+		buffer.position(buffer.position() + tileIDs.length * 2);
+		byte[] tileVariants = new byte[width * height];
+		buffer.get(tileVariants);
+		int wordCount = buffer.getInt();
+		if (wordCount < 0) {
+			throw new IOException(path + ": invalid solid tile count " + wordCount);
+		}
+		require(buffer, (long) wordCount * 8 + 4, path, "solid tiles");
+		long[] words = new long[wordCount];
+		buffer.asLongBuffer().get(words);
+		buffer.position(buffer.position() + words.length * 8);
+		level.setTiles(width, height, tileIDs, BitSet.valueOf(words), tileVariants);
+		
+		int entityCount = buffer.getInt();
+		if (entityCount < 0) {
+			throw new IOException(path + ": invalid entity count " + entityCount);
+		}
+		require(buffer, (long) entityCount * 9, path, "entities"); // type, x and y of each
+		for (int i = 0; i < entityCount; i++) {
+			int type = buffer.get();
+			int x = buffer.getInt();
+			int y = buffer.getInt();
+			switch (type) {
+			case PLAYER: level.spawnEntity(new Player(x, y)); break;
+			case GOAL: level.spawnEntity(new Goal(x, y)); break;
+			case ITEM: level.spawnEntity(new Item(x, y)); break;
+			case ENEMY: break; // enemies not yet implemented
+			default: throw new IOException(path + " has unknown entity type " + type);
+			}
+		}
+	}
+	
+	/**
+	 * Check that enough of a level file is left to read a part of it.
+	 * @param buffer The level file, positioned at the part
+	 * @param bytes The size of the part in bytes
+	 * @param path The resource path of the level file, for the error
+	 * @param part The name of the part, for the error
+	 * @throws IOException If the file ends before the part does
+	 */
+	private static void require(ByteBuffer buffer, long bytes, String path, String part) throws IOException {
+		if (bytes > buffer.remaining()) {
+			throw new IOException(path + ": file ends in the " + part + " (" + bytes + " bytes needed, "
+					+ buffer.remaining() + " left)");
+		}
+	}
+	
+	/**
+	 * Write a level to a binary level file.
+	 * The entities are written at their current positions, so this should be
+	 * called on a freshly loaded level.
+	 * @param level The level to write
+	 * @param file The path of the file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(Level level, String file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(level.getWidth());
+			out.writeInt(level.getHeight());
+			for (int y = 0; y < level.getHeight(); y++) {
+				for (int x = 0; x < level.getWidth(); x++) {
+					out.writeShort(level.getTileID(x, y));
+				}
+			}
+			for (int y = 0; y < level.getHeight(); y++) {
+				for (int x = 0; x < level.getWidth(); x++) {
+					out.writeByte(level.getTileVariant(x, y));
+				}
+			}
+			long[] words = level.getSolidTiles().toLongArray();
+			out.writeInt(words.length);
+			for (int i = 0; i < words.length; i++) {
+				out.writeLong(words[i]);
+			}
+			
+			List<Entity> entities = level.getEntities();
+			out.writeInt(entities.size());
+			for (int i = 0; i < entities.size(); i++) {
+				Entity e = entities.get(i);
+				out.writeByte(getType(e));
+				out.writeInt((int) e.getX());
+				out.writeInt((int) e.getY());
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Get the type of an entity as stored in level files.
+	 * @param e The entity
+	 * @return The entity type
+	 */
+	private static int getType(Entity e) {
+		if (e instanceof Player) return PLAYER;
+		if (e instanceof Goal) return GOAL;
+		if (e instanceof Item) return ITEM;
+		if (e instanceof Enemy) return ENEMY;
+		throw new IllegalArgumentException("Cannot store entity " + e.getClass().getName());
+	}
+	
+	/**
+	 * Convert a PNG level into a binary level file.
+	 * Usage: LevelFile /levels/level.png res/levels/level.lvl [seed]
+	 * @param args The resource path of the PNG level, the file to write and
+	 *             optionally the seed the tiles are built with
+	 * @throws IOException If the level cannot be converted
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && args.length != 3) {
+			System.err.println("Usage: LevelFile <level.png resource> <output" + EXTENSION + "> [seed]");
+			System.exit(1);
+		}
+		System.setProperty("java.awt.headless", "true");
+		Level level = args.length == 3 ? new Level(args[0], Long.parseLong(args[2])) : new Level(args[0]);
+		write(level, args[1]);
+		System.out.println("Wrote " + level.getWidth() + "x" + level.getHeight() + " level with "
+				+ level.getEntities().size() + " entities to " + args[1]);
+	}
+}
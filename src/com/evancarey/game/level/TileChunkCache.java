@@ -0,0 +1,176 @@
+package com.evancarey.game.level;
+
+import java.util.Arrays;
+
+import com.evancarey.game.gfx.Renderer;
+import com.evancarey.game.gfx.Sprite;
+import com.evancarey.game.gfx.SpriteBatch;
+import com.evancarey.game.level.tiles.Tile;
+
+/**
+ * Cache of pre-rendered chunks of a level's static tiles.
+ * Each chunk is a square of tiles baked into an off-screen bitmap (compiled
+ * into opaque spans) the first time it is on screen, so a frame only has to
+ * blit the few chunks that overlap the camera instead of drawing every tile.
+ * The least recently drawn chunks are dropped once the cache is full. The
+ * cache holds at least CAPACITY chunks, and more on large screens (see
+ * fitScreen()), so it never drops chunks that are still on screen. A
+ * cache belongs to the thread that draws the level (see FrameDrawer) and
+ * only reads the level's tiles, which rarely change (see Level.setTile()).
+ */
+public class TileChunkCache {
+	
+	/** The width and height of a chunk in tiles */
+	public static final int CHUNK_TILES = 16;
+	/** The width and height of a chunk in pixels */
+	private static final int CHUNK_SIZE = CHUNK_TILES * 16;
+	/** Grass is drawn up to 3 pixels above its tile, so chunks have a margin on top */
+	private static final int MARGIN = 3;
+	/** The fewest chunks kept at once, whatever the size of the screen */
+	private static final int CAPACITY = 32;
+	
+	private Level level;
+	private int chunksX;
+	private int chunksY;
+	
+	private Sprite[] chunks;
+	/** The frame each chunk was last drawn in, for LRU eviction */
+	private int[] lastUsed;
+	private int cached;
+	/** The maximum number of chunks kept at once */
+	private int capacity;
+	/** The size of the screen the capacity was chosen for */
+	private int screenWidth;
+	private int screenHeight;
+	private int frame;
+	
+	/** Scratch bitmap (and renderer) the chunks are baked in */
+	private int[] buffer;
+	private Renderer bufferRenderer;
+	
+	/**
+	 * Construct an empty cache for a level.
+	 * @param level The level whose tiles are cached
+	 */
+	public TileChunkCache(Level level) {
+		this.level = level;
+		chunksX = (level.getWidth() + CHUNK_TILES - 1) / CHUNK_TILES;
+		chunksY = (level.getHeight() + CHUNK_TILES - 1) / CHUNK_TILES;
+		chunks = new Sprite[chunksX * chunksY];
+		lastUsed = new int[chunksX * chunksY];
+		cached = 0;
+		capacity = CAPACITY;
+		screenWidth = 0;
+		screenHeight = 0;
+		frame = 0;
+	}
+	
+	/**
+	 * Draw the chunks that overlap the screen, baking any that are missing.
+	 * @param batch The batch the chunks are added to
+	 * @param xOffset The relative x position of the level
+	 * @param yOffset The relative y position of the level
+	 */
+	public void draw(SpriteBatch batch, int xOffset, int yOffset) {
+		Renderer renderer = batch.getRenderer();
+		if (renderer.getWidth() != screenWidth || renderer.getHeight() != screenHeight) {
+			fitScreen(renderer.getWidth(), renderer.getHeight());
+		}
+		frame++;
+		int cx0 = Math.max(Math.floorDiv(-xOffset, CHUNK_SIZE), 0);
+		int cy0 = Math.max(Math.floorDiv(-yOffset, CHUNK_SIZE), 0);
+		int cx1 = Math.min(Math.floorDiv(renderer.getWidth() - xOffset - 1, CHUNK_SIZE), chunksX - 1);
+		// the margin of the chunk below can reach up onto the screen
+		int cy1 = Math.min(Math.floorDiv(renderer.getHeight() - yOffset - 1 + MARGIN, CHUNK_SIZE), chunksY - 1);
+		
+		for (int cy = cy0; cy <= cy1; cy++) {
+			for (int cx = cx0; cx <= cx1; cx++) {
+				int i = cx + cy * chunksX;
+				if (chunks[i] == null) {
+					bake(renderer, cx, cy);
+				}
+				lastUsed[i] = frame;
+				batch.drawImage(SpriteBatch.LAYER_TILES, chunks[i], cx * CHUNK_SIZE + xOffset, cy * CHUNK_SIZE - MARGIN + yOffset);
+			}
+		}
+	}
+	
+	/**
+	 * Size the cache for a screen: room for twice as many chunks as can be
+	 * on it at once, so chunks just scrolled off are not baked again, and
+	 * no fewer than CAPACITY.
+	 * @param width The width of the screen
+	 * @param height The height of the screen
+	 */
+	private void fitScreen(int width, int height) {
+		screenWidth = width;
+		screenHeight = height;
+		// a screen can straddle one more chunk than it spans, and the chunks' margins reach one row further
+		int visible = ((width + CHUNK_SIZE - 1) / CHUNK_SIZE + 1) * ((height + MARGIN + CHUNK_SIZE - 1) / CHUNK_SIZE + 1);
+		capacity = Math.max(CAPACITY, visible * 2);
+		while (cached > capacity) {
+			evict();
+		}
+	}
+	
+	/**
+	 * Render a chunk's tiles into a new bitmap, evicting the least recently
+	 * used chunk if the cache is full.
+	 * @param renderer The renderer whose sprite sheets are used
+	 * @param cx The x position of the chunk
+	 * @param cy The y position of the chunk
+	 */
+	private void bake(Renderer renderer, int cx, int cy) {
+		if (cached >= capacity) {
+			evict();
+		}
+		if (buffer == null) {
+			buffer = new int[CHUNK_SIZE * (CHUNK_SIZE + MARGIN)];
+			bufferRenderer = renderer.createTarget(buffer, CHUNK_SIZE, CHUNK_SIZE + MARGIN);
+		}
+		Arrays.fill(buffer, Sprite.TRANSPARENT);
+		
+		int x1 = Math.min((cx + 1) * CHUNK_TILES, level.getWidth());
+		int y1 = Math.min((cy + 1) * CHUNK_TILES, level.getHeight());
+		for (int y = cy * CHUNK_TILES; y < y1; y++) {
+			for (int x = cx * CHUNK_TILES; x < x1; x++) {
+				Tile.draw(bufferRenderer, level.getTileID(x, y), level.getTileVariant(x, y), x, y, -cx * CHUNK_SIZE, -cy * CHUNK_SIZE + MARGIN);
+			}
+		}
+		chunks[cx + cy * chunksX] = new Sprite(buffer, CHUNK_SIZE, CHUNK_SIZE + MARGIN, new int[] {Sprite.TRANSPARENT});
+		cached++;
+	}
+	
+	/**
+	 * Drop the chunk that was drawn the longest time ago.
+	 */
+	private void evict() {
+		int oldest = -1;
+		for (int i = 0; i < chunks.length; i++) {
+			if (chunks[i] != null && (oldest == -1 || lastUsed[i] < lastUsed[oldest])) {
+				oldest = i;
+			}
+		}
+		if (oldest != -1) {
+			chunks[oldest] = null;
+			cached--;
+		}
+	}
+	
+	/**
+	 * Get the level whose tiles are cached.
+	 * @return The level
+	 */
+	public Level getLevel() {
+		return level;
+	}
+	
+	/**
+	 * Drop every chunk, e.g. when the level's tiles changed (see
+	 * Level.getTileRevision()).
+	 */
+	public void clear() {
+		Arrays.fill(chunks, null);
+		cached = 0;
+	}
+}
@@ -1,61 +1,59 @@
 package com.evancarey.game.level.tiles;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import com.evancarey.game.GameArea;
-import com.evancarey.game.Global;
 import com.evancarey.game.gfx.Renderer;
 import com.evancarey.game.level.Level;
 
-/** Class representing a tile in a level */
+/**
+ * Class representing a tile in a level.
+ * The level stores its tiles in primitive arrays (IDs, a solid bit and a
+ * packed variant byte per cell), so a Tile object is only a lightweight view
+ * of one cell. The static methods hold the logic for each kind of tile.
+ */
 public class Tile {
-		
-	private int x;
-	private int y;
-	private int id;
 	
-	/** The x position of the tile on the tile sheet */
-	private int tileX;
-	/** The y position of the tile on the tile sheet */
-	private int tileY;
+	/** ID of the null (empty) tile */
+	public static final int EMPTY = 0;
+	/** ID of the basic dirt tile */
+	public static final int DIRT = 1;
 	
-	private boolean solid;
+	/** Variant of a tile with the first sprite and no grass */
+	public static final int NO_VARIANT = 0;
 	
-	private int grassTile;
+	private Level level;
+	private int x;
+	private int y;
 	
 	/**
-	 * Construct a new tile.
+	 * Construct a view of a tile in a level.
+	 * @param level The level containing the tile
 	 * @param x The x position of the tile
 	 * @param y The y position of the tile
-	 * @param id The tile's ID
-	 * @param solid Whether the tile is solid
 	 */
-	public Tile(int x, int y, int id, boolean solid) {
+	public Tile(Level level, int x, int y) {
+		this.level = level;
 		this.x = x;
 		this.y = y;
-		
-		this.id = id;
-		this.solid = solid;
-		
-		tileX = 0;
-		tileY = 0;
-		grassTile = -1;
 	}
 	
 	/**
-	 * Build the tile for the current level.
+	 * Build a tile for the current level.
 	 * The correct tile sprite is chosen based on the surrounding tiles.
-	 * For example, if this is dirt tile and its surrounded on all four 
+	 * For example, if this is dirt tile and its surrounded on all four
 	 * sides by other dirt tiles, it will be an inner dirt tile.
 	 * @param level The current level
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
+	 * @param random The generator for the tile's random details
+	 * @return The tile's variant, packed by getVariant()
 	 */
-	public void build(Level level) {
-		tileX = 0;
-		tileY = 0;
-		grassTile = -1;
+	public static int build(Level level, int x, int y, SplittableRandom random) {
+		int id = level.getTileID(x, y);
 		
 		// Dirt tile set
-		if (id == 1) {	
+		if (id == DIRT) {
 			// check sides to determine correct tile sprite
 			int right = level.getTileID(x + 1, y) == id ? 1 : 0;
 			int top = level.getTileID(x, y - 1) == id ? 2 : 0;
@@ -63,38 +61,60 @@ public class Tile {
 			int bottom = level.getTileID(x, y + 1) == id ? 8 : 0;
 			int sum = right + top + left + bottom;
 			
-			tileX = sum % 4;
-			tileY = sum >> 2;
-
+			int grassTile = -1;
 			if (top == 0) { // top tile, so it will have grass on it
-				grassTile = (new Random()).nextInt(7);
+				grassTile = random.nextInt(7);
 			}
+			return getVariant(sum, grassTile);
 		}
+		return NO_VARIANT;
+	}
+	
+	/**
+	 * Pack a tile's sprite and grass into one variant byte.
+	 * The low four bits hold the sprite index (tileX + tileY * 4 on the tile
+	 * sheet) and the next three hold the grass tile plus one (0 for no grass).
+	 * @param sprite The index of the tile's sprite
+	 * @param grassTile The grass drawn on top of the tile (-1 for none)
+	 * @return The packed variant
+	 */
+	public static int getVariant(int sprite, int grassTile) {
+		return sprite | ((grassTile + 1) << 4);
 	}
+	
 	/**
-	 * Update the tile.
+	 * Update a tile.
 	 * @param area The GameArea that contains the tile.
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
 	 */
-	public void update(GameArea area) {
+	public static void update(GameArea area, int x, int y) {
 		// will eventually be used for animated tiles
 	}
 	
 	/**
-	 * Draw the tile.
+	 * Draw a tile.
 	 * @param renderer The renderer responsible for drawing the tile.
+	 * @param id The tile's ID
+	 * @param variant The tile's packed variant
+	 * @param x The x position of the tile
+	 * @param y The y position of the tile
 	 * @param xOffset The relative x position of the tile
 	 * @param yOffset The relative y position of the tile
 	 */
-	public void draw(Renderer renderer, int xOffset, int yOffset) {
-		if (x * 16 + xOffset < -16 || x * 16 + xOffset >= Global.WIDTH + 16 || y * 16 + yOffset < -16 || y * 16 + yOffset >= Global.HEIGHT + 16) {
+	public static void draw(Renderer renderer, int id, int variant, int x, int y, int xOffset, int yOffset) {
+		if (x * 16 + xOffset < -16 || x * 16 + xOffset >= renderer.getWidth() + 16 || y * 16 + yOffset < -16 || y * 16 + yOffset >= renderer.getHeight() + 16) {
 			return;	// Tile not visible on screen -> do not draw
 		}
-		if (id == 0) {
+		if (id == EMPTY) {
 			return; // null tile
 		}
 		
 		// Dirt tiles
-		if (id == 1) {
+		if (id == DIRT) {
+			int tileX = variant & 3;
+			int tileY = (variant >> 2) & 3;
+			int grassTile = ((variant >> 4) & 7) - 1;
 			renderer.drawTile(x << 4, y << 4, tileX << 4, tileY << 4, 16, 16, xOffset, yOffset);
 			if (grassTile != -1) { // draw grass on top of the tile
 				renderer.drawTile(x * 16, y * 16 - 3, 64 + grassTile * 16, 13, 16, 3, xOffset, yOffset);
@@ -102,6 +122,16 @@ public class Tile {
 		}
 	}
 	
+	/**
+	 * Draw the tile.
+	 * @param renderer The renderer responsible for drawing the tile.
+	 * @param xOffset The relative x position of the tile
+	 * @param yOffset The relative y position of the tile
+	 */
+	public void draw(Renderer renderer, int xOffset, int yOffset) {
+		draw(renderer, getID(), level.getTileVariant(x, y), x, y, xOffset, yOffset);
+	}
+	
 	/**
 	 * Get the x position of the tile.
 	 * @return The x position
@@ -123,7 +153,7 @@ public class Tile {
 	 * @return True if the tile is solid
 	 */
 	public boolean isSolid() {
-		return solid;
+		return level.isSolid(x, y);
 	}
 	
 	/**
@@ -131,6 +161,6 @@ public class Tile {
 	 * @return the tile's ID
 	 */
 	public int getID() {
-		return id;
+		return level.getTileID(x, y);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,403 @@
+package com.evancarey.game.sound;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Mixes the playing sounds into a single stream for an AudioSink.
+ * Sounds are decoded to PCM when they are loaded, so playing one only
+ * points a voice at its samples: nothing is allocated and no thread is
+ * started. There is a fixed pool of VOICES voices; when every voice is busy,
+ * the sound that has played the longest is cut off to make room (looping
+ * sounds are only cut off if nothing else is playing), and a sound can
+ * limit how many copies of itself play at once.
+ * 
+ * Music is streamed (see MusicStream) rather than decoded up front. When
+ * the track changes, the old one fades out while the new one fades in.
+ * 
+ * The mixer runs on its own thread once started, or is stepped by hand
+ * with mix(), which is how the headless Simulation keeps the audio in step
+ * with its ticks.
+ */
+public class AudioMixer {
+	
+	public static final int SAMPLE_RATE = 44100;
+	public static final int CHANNELS = 2;
+	/** Bytes in one frame (a 16-bit sample for each channel) */
+	public static final int FRAME_BYTES = CHANNELS * 2;
+	public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+	/** The number of sounds that can play at once */
+	public static final int VOICES = 16;
+	/** The number of frames mixed at a time (about 12 ms) */
+	public static final int BLOCK_FRAMES = 512;
+	/** The number of frames a change of music crossfades over (one second) */
+	public static final int CROSSFADE_FRAMES = SAMPLE_RATE;
+	
+	private static final AudioMixer mixer = new AudioMixer();
+	
+	// voices, by index (a voice is free when its sound is null)
+	private Sound[] sounds;
+	/** The next frame of its sound each voice plays */
+	private int[] positions;
+	private boolean[] looping;
+	/** When each voice was started, to find the oldest one to steal */
+	private long[] startOrder;
+	private long started;
+	
+	/** The music playing, and the music fading out */
+	private MusicStream music, oldMusic;
+	/** How far the crossfade is from the old music to the new one (0 to 1) */
+	private float fade;
+	private int musicUnderruns;
+	
+	private AudioSink sink;
+	/** The block being mixed, as 32-bit sums so loud mixes can be clipped */
+	private int[] sums;
+	private byte[] block;
+	
+	private Thread thread;
+	private volatile boolean running;
+	
+	/**
+	 * Get the mixer that sounds are played on.
+	 * @return The mixer
+	 */
+	public static AudioMixer getMixer() {
+		return mixer;
+	}
+	
+	private AudioMixer() {
+		sounds = new Sound[VOICES];
+		positions = new int[VOICES];
+		looping = new boolean[VOICES];
+		startOrder = new long[VOICES];
+		started = 0;
+		
+		music = null;
+		oldMusic = null;
+		fade = 1;
+		musicUnderruns = 0;
+		
+		sink = new NullSink();
+		sums = new int[BLOCK_FRAMES * CHANNELS];
+		block = new byte[BLOCK_FRAMES * FRAME_BYTES];
+	}
+	
+	/**
+	 * Set where the mixed audio goes. The previous sink is closed.
+	 * @param sink The new sink
+	 */
+	public synchronized void setSink(AudioSink sink) {
+		this.sink.close();
+		this.sink = sink;
+	}
+	
+	/**
+	 * Start mixing on the mixer's own thread, in real time. If the sink does
+	 * not pace the mixer, the thread sleeps between blocks instead.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				long startTime = System.nanoTime();
+				long frames = 0;
+				while (running) {
+					mix(BLOCK_FRAMES);
+					frames += BLOCK_FRAMES;
+					if (!isPaced()) {
+						long due = startTime + frames * 1000000000L / SAMPLE_RATE;
+						LockSupport.parkNanos(due - System.nanoTime());
+					}
+				}
+			}
+		}, "Audio");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY); // an underrun is heard as a click
+		thread.start();
+	}
+	
+	/**
+	 * Stop the mixer's thread, waiting for it to finish its block.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = this.thread;
+			this.thread = null;
+		}
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Stop the mixer's thread, the music and the sink. Sounds played afterwards
+	 * are mixed into a NullSink.
+	 */
+	public void close() {
+		stop();
+		synchronized (this) {
+			if (music != null) {
+				closeMusic(music);
+				music = null;
+			}
+			if (oldMusic != null) {
+				closeMusic(oldMusic);
+				oldMusic = null;
+			}
+		}
+		setSink(new NullSink());
+	}
+	
+	/**
+	 * Start playing a sound on a free voice, or on a stolen one.
+	 * @param sound The sound to play
+	 * @param loop Whether to loop the sound until it is stopped
+	 */
+	public synchronized void play(Sound sound, boolean loop) {
+		start(sound, loop);
+	}
+	
+	/**
+	 * Start playing a batch of sounds at once (see SoundQueue).
+	 * @param sounds The sounds to play
+	 * @param count The number of sounds in the array to play
+	 */
+	public synchronized void playAll(Sound[] sounds, int count) {
+		for (int i = 0; i < count; i++) {
+			start(sounds[i], false);
+		}
+	}
+	
+	/**
+	 * Stop every voice playing a sound.
+	 * @param sound The sound to stop
+	 */
+	public synchronized void stop(Sound sound) {
+		for (int voice = 0; voice < VOICES; voice++) {
+			if (sounds[voice] == sound) {
+				sounds[voice] = null;
+			}
+		}
+	}
+	
+	/**
+	 * Crossfade to a music track. The track is streamed from its file, and
+	 * nothing is read on the calling thread.
+	 * @param path The resource path of the WAV file
+	 * @param loopFrame The frame the track loops back to, or -1 to play it once
+	 */
+	public void playMusic(String path, long loopFrame) {
+		MusicStream stream = new MusicStream(path, loopFrame);
+		changeMusic(stream);
+	}
+	
+	/**
+	 * Fade out the music.
+	 */
+	public void stopMusic() {
+		changeMusic(null);
+	}
+	
+	/**
+	 * Get how many times music ran out of decoded audio, over all tracks.
+	 * @return The number of music underruns
+	 */
+	public synchronized int getMusicUnderrunCount() {
+		int count = musicUnderruns;
+		if (music != null) {
+			count += music.getUnderrunCount();
+		}
+		if (oldMusic != null) {
+			count += oldMusic.getUnderrunCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * Start fading from the current music to another track.
+	 * @param stream The new track, or null to fade to silence
+	 */
+	private synchronized void changeMusic(MusicStream stream) {
+		if (oldMusic != null) {
+			closeMusic(oldMusic); // a track that was still fading out is cut off
+		}
+		oldMusic = music;
+		music = stream;
+		fade = 0;
+	}
+	
+	private void closeMusic(MusicStream stream) {
+		musicUnderruns += stream.getUnderrunCount();
+		stream.close();
+	}
+	
+	/**
+	 * Get the number of voices playing.
+	 * @return The number of busy voices
+	 */
+	public synchronized int getPlayingCount() {
+		int count = 0;
+		for (int voice = 0; voice < VOICES; voice++) {
+			if (sounds[voice] != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Mix the next frames of the playing sounds and write them to the sink.
+	 * Called by the mixer's thread, or by hand when it is not started.
+	 * @param frames The number of frames to mix
+	 */
+	public void mix(int frames) {
+		while (frames > 0) {
+			int count = Math.min(frames, BLOCK_FRAMES);
+			AudioSink sink;
+			synchronized (this) {
+				mixBlock(count);
+				sink = this.sink;
+			}
+			sink.write(block, count * FRAME_BYTES); // outside the lock, as the sink may block
+			frames -= count;
+		}
+	}
+	
+	private synchronized boolean isPaced() {
+		return sink.isPaced();
+	}
+	
+	/**
+	 * Mix a block of frames into the block array.
+	 * @param frames The number of frames to mix (at most BLOCK_FRAMES)
+	 */
+	private void mixBlock(int frames) {
+		int samples = frames * CHANNELS;
+		for (int i = 0; i < samples; i++) {
+			sums[i] = 0;
+		}
+		for (int voice = 0; voice < VOICES; voice++) {
+			Sound sound = sounds[voice];
+			if (sound == null) {
+				continue;
+			}
+			short[] data = sound.getSamples();
+			int length = sound.getFrameCount() * CHANNELS;
+			int position = positions[voice] * CHANNELS;
+			int i = 0;
+			while (i < samples) {
+				int count = Math.min(samples - i, length - position);
+				for (int j = 0; j < count; j++) {
+					sums[i + j] += data[position + j];
+				}
+				i += count;
+				position += count;
+				if (position == length) {
+					if (!looping[voice]) {
+						sounds[voice] = null;
+						break;
+					}
+					position = 0;
+				}
+			}
+			positions[voice] = position / CHANNELS;
+		}
+		mixMusic(frames);
+		for (int i = 0; i < samples; i++) {
+			int sample = Math.max(Math.min(sums[i], Short.MAX_VALUE), Short.MIN_VALUE);
+			block[i * 2] = (byte) sample;
+			block[i * 2 + 1] = (byte) (sample >> 8);
+		}
+	}
+	
+	/**
+	 * Mix a block of the music, crossfading if the track has just changed.
+	 * The new track waits until its stream has buffered enough to start
+	 * cleanly, while the old one keeps playing.
+	 * @param frames The number of frames to mix
+	 */
+	private void mixMusic(int frames) {
+		float step = 1f / CROSSFADE_FRAMES;
+		boolean ready = music == null || music.isPrimed();
+		if (music != null && ready) {
+			music.mix(sums, frames, fade, step);
+		}
+		if (oldMusic != null) {
+			oldMusic.mix(sums, frames, 1 - fade, -step);
+		}
+		if (ready) {
+			fade = Math.min(fade + step * frames, 1);
+		}
+		
+		if (oldMusic != null && (fade == 1 || oldMusic.isDone())) {
+			closeMusic(oldMusic);
+			oldMusic = null;
+		}
+		if (music != null && music.isDone()) {
+			closeMusic(music);
+			music = null;
+		}
+	}
+	
+	private void start(Sound sound, boolean loop) {
+		if (sound.getFrameCount() == 0) {
+			return; // failed to load
+		}
+		int voice = findVoice(sound);
+		sounds[voice] = sound;
+		positions[voice] = 0;
+		looping[voice] = loop;
+		startOrder[voice] = started++;
+	}
+	
+	/**
+	 * Find a voice to play a new sound on. If the sound is already playing
+	 * as many times as it may, its oldest copy is restarted. Otherwise a free
+	 * voice is used if there is one, then the oldest voice that is not
+	 * looping, then the oldest.
+	 * @param sound The sound to play
+	 * @return The voice index
+	 */
+	private int findVoice(Sound sound) {
+		int instances = 0;
+		int oldestInstance = -1;
+		for (int voice = 0; voice < VOICES; voice++) {
+			if (sounds[voice] == sound) {
+				instances++;
+				if (oldestInstance == -1 || startOrder[voice] < startOrder[oldestInstance]) {
+					oldestInstance = voice;
+				}
+			}
+		}
+		if (instances > 0 && instances >= sound.getMaxInstances()) {
+			return oldestInstance;
+		}
+		
+		int oldest = -1;
+		int oldestLooping = -1;
+		for (int voice = 0; voice < VOICES; voice++) {
+			if (sounds[voice] == null) {
+				return voice;
+			}
+			if (looping[voice]) {
+				if (oldestLooping == -1 || startOrder[voice] < startOrder[oldestLooping]) {
+					oldestLooping = voice;
+				}
+			} else if (oldest == -1 || startOrder[voice] < startOrder[oldest]) {
+				oldest = voice;
+			}
+		}
+		return oldest != -1 ? oldest : oldestLooping;
+	}
+}
@@ -0,0 +1,28 @@
+package com.evancarey.game.sound;
+
+/**
+ * Where the mixer's output goes: the sound card, a file or nowhere.
+ * Audio is written as 16-bit signed little-endian stereo frames at
+ * AudioMixer.SAMPLE_RATE (AudioMixer.FORMAT).
+ */
+public interface AudioSink {
+	
+	/**
+	 * Write a block of mixed audio.
+	 * @param data The audio bytes
+	 * @param length The number of bytes to write
+	 */
+	public void write(byte[] data, int length);
+	
+	/**
+	 * Check if writing blocks until the audio is (nearly) played, so the
+	 * sink keeps the mixer in step with real time by itself.
+	 * @return True if the sink paces the mixer
+	 */
+	public boolean isPaced();
+	
+	/**
+	 * Stop the output and release its resources.
+	 */
+	public void close();
+}
@@ -0,0 +1,44 @@
+package com.evancarey.game.sound;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays the mixer's output on the sound card through a SourceDataLine.
+ * The line only buffers a few blocks, so a sound starts playing within a
+ * few hundredths of a second of the game asking for it.
+ */
+public class LineSink implements AudioSink {
+	
+	/** The number of mixer blocks the line buffers */
+	private static final int BUFFERED_BLOCKS = 4;
+	
+	private SourceDataLine line;
+	
+	/**
+	 * Open the default audio output.
+	 * @throws LineUnavailableException If there is no audio output to open
+	 */
+	public LineSink() throws LineUnavailableException {
+		line = AudioSystem.getSourceDataLine(AudioMixer.FORMAT);
+		line.open(AudioMixer.FORMAT, AudioMixer.BLOCK_FRAMES * AudioMixer.FRAME_BYTES * BUFFERED_BLOCKS);
+		line.start();
+	}
+	
+	@Override
+	public void write(byte[] data, int length) {
+		line.write(data, 0, length);
+	}
+	
+	@Override
+	public boolean isPaced() {
+		return true;
+	}
+	
+	@Override
+	public void close() {
+		line.stop();
+		line.close();
+	}
+}
@@ -0,0 +1,265 @@
+package com.evancarey.game.sound;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * A music track streamed from a WAV file. A decoder thread reads the file a
+ * chunk at a time, converts it to the mixer's format and writes it into a
+ * ring buffer, which the mixer reads from. The ring has one writer and one
+ * reader, so the two only share the frame counts either side has reached
+ * (written and read), and neither ever takes a lock or waits for the
+ * other: the decoder parks while the ring is full, and if the mixer finds
+ * it empty it plays silence and counts an underrun. However long the track,
+ * only the ring and one chunk are held in memory.
+ */
+public class MusicStream implements Runnable {
+	
+	/** Frames in the ring buffer (about 0.75 s); must be a power of two */
+	private static final int RING_FRAMES = 32768;
+	/** Source frames decoded at a time */
+	private static final int CHUNK_FRAMES = 4096;
+	/** Longest time the decoder parks while the ring is full */
+	private static final long PARK_NANOS = 20000000L;
+	
+	private String path;
+	private long loopFrame;
+	
+	/** Interleaved stereo samples, indexed by frame modulo RING_FRAMES */
+	private short[] ring;
+	/** The number of frames written by the decoder */
+	private volatile long written;
+	/** The number of frames read by the mixer */
+	private volatile long read;
+	/** Whether the decoder reached the end and will write no more */
+	private volatile boolean finished;
+	private volatile boolean closed;
+	private int underruns;
+	
+	private Thread thread;
+	
+	// decoder state
+	private byte[] chunk;
+	private short[] converted;
+	private double step;
+	private double phase;
+	private int lastLeft, lastRight;
+	private boolean started;
+	
+	/**
+	 * Start streaming a track. The file is opened on the decoder thread, so
+	 * this never waits for the disk.
+	 * @param path The resource path of the WAV file
+	 * @param loopFrame The frame (at AudioMixer.SAMPLE_RATE) playback jumps
+	 *                  back to at the end of the track, or -1 to play it once
+	 */
+	public MusicStream(String path, long loopFrame) {
+		this.path = path;
+		this.loopFrame = loopFrame;
+		ring = new short[RING_FRAMES * AudioMixer.CHANNELS];
+		written = 0;
+		read = 0;
+		finished = false;
+		closed = false;
+		underruns = 0;
+		
+		thread = new Thread(this, "Music");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Decode the track into the ring until it ends or the stream is closed.
+	 */
+	@Override
+	public void run() {
+		try {
+			AudioInputStream in = open(0);
+			boolean readAny = false;
+			while (!closed) {
+				int bytes = in.readNBytes(chunk, 0, chunk.length);
+				if (bytes > 0) {
+					readAny = true;
+					write(convert(bytes, in.getFormat().getChannels()));
+					continue;
+				}
+				in.close();
+				if (loopFrame < 0 || !readAny) {
+					break;
+				}
+				in = open(loopFrame);
+				readAny = false;
+			}
+			in.close();
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		finished = true;
+	}
+	
+	/**
+	 * Stop decoding. The mixer stops reading a closed stream.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+	}
+	
+	/**
+	 * Check if the stream has played to its end (or was closed).
+	 * @return True if there is nothing left to play
+	 */
+	public boolean isDone() {
+		return closed || (finished && read == written);
+	}
+	
+	/**
+	 * Check if the ring holds enough to start playing without an underrun.
+	 * @return True if the stream can start
+	 */
+	public boolean isPrimed() {
+		return finished || written >= RING_FRAMES / 2;
+	}
+	
+	/**
+	 * Get how many times the mixer found the ring empty while the decoder
+	 * had more to give.
+	 * @return The number of underruns
+	 */
+	public int getUnderrunCount() {
+		return underruns;
+	}
+	
+	/**
+	 * Add the next frames in the ring to a mix, fading their volume from one
+	 * gain towards another. Only the mixer may call this.
+	 * @param sums The mix to add to (interleaved stereo)
+	 * @param frames The number of frames wanted
+	 * @param gain The gain of the first frame
+	 * @param gainStep The change of gain per frame (the gain stays within 0 and 1)
+	 * @return The number of frames mixed
+	 */
+	int mix(int[] sums, int frames, float gain, float gainStep) {
+		if (closed) {
+			return 0;
+		}
+		long position = read;
+		int count = (int) Math.min(written - position, frames);
+		for (int i = 0; i < count; i++) {
+			float g = Math.min(Math.max(gain + gainStep * i, 0), 1);
+			int index = (int) ((position + i) & (RING_FRAMES - 1)) * 2;
+			sums[i * 2] += (int) (ring[index] * g);
+			sums[i * 2 + 1] += (int) (ring[index + 1] * g);
+		}
+		read = position + count;
+		if (count < frames && !finished) {
+			underruns++;
+		}
+		if (written - read < RING_FRAMES / 2) {
+			LockSupport.unpark(thread); // wake the decoder early rather than run dry
+		}
+		return count;
+	}
+	
+	/**
+	 * Open the track, converted to 16-bit little-endian samples at its own
+	 * rate, and skip to a frame.
+	 * @param frame The frame to start at (at AudioMixer.SAMPLE_RATE)
+	 * @return The opened stream
+	 * @throws IOException If the file cannot be read
+	 * @throws UnsupportedAudioFileException If the file's format is not supported
+	 */
+	private AudioInputStream open(long frame) throws IOException, UnsupportedAudioFileException {
+		URL url = MusicStream.class.getResource(path);
+		if (url == null) {
+			throw new IOException("Music not found: " + path);
+		}
+		AudioInputStream source = AudioSystem.getAudioInputStream(url);
+		AudioFormat format = source.getFormat();
+		AudioFormat pcm = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+		AudioInputStream in = AudioSystem.getAudioInputStream(pcm, source);
+		
+		if (chunk == null) {
+			step = pcm.getSampleRate() / AudioMixer.SAMPLE_RATE;
+			chunk = new byte[CHUNK_FRAMES * pcm.getFrameSize()];
+			converted = new short[((int) (CHUNK_FRAMES / step) + 2) * AudioMixer.CHANNELS];
+		}
+		long skip = (long) (frame * step) * pcm.getFrameSize();
+		while (skip > 0) {
+			long skipped = in.skip(skip);
+			if (skipped <= 0) {
+				break;
+			}
+			skip -= skipped;
+		}
+		return in;
+	}
+	
+	/**
+	 * Convert a chunk to stereo at the mixer's sample rate. Mono is copied to
+	 * both channels, and other sample rates are converted by linear
+	 * interpolation, carrying the position over from chunk to chunk (and
+	 * across the loop, so it is seamless).
+	 * @param bytes The number of bytes in the chunk
+	 * @param channels The number of channels in the chunk
+	 * @return The number of frames converted
+	 */
+	private int convert(int bytes, int channels) {
+		int frameBytes = channels * 2;
+		int frames = 0;
+		for (int offset = 0; offset + frameBytes <= bytes; offset += frameBytes) {
+			int left = (short) ((chunk[offset] & 0xff) | (chunk[offset + 1] << 8));
+			int right = left;
+			if (channels > 1) {
+				right = (short) ((chunk[offset + 2] & 0xff) | (chunk[offset + 3] << 8));
+			}
+			if (!started) {
+				lastLeft = left;
+				lastRight = right;
+				started = true;
+			}
+			// output frames fall between the last source frame and this one
+			while (phase < 1) {
+				converted[frames * 2] = (short) (lastLeft + (left - lastLeft) * phase);
+				converted[frames * 2 + 1] = (short) (lastRight + (right - lastRight) * phase);
+				frames++;
+				phase += step;
+			}
+			phase -= 1;
+			lastLeft = left;
+			lastRight = right;
+		}
+		return frames;
+	}
+	
+	/**
+	 * Write converted frames into the ring, parking while it is full.
+	 * @param frames The number of frames to write
+	 */
+	private void write(int frames) {
+		int offset = 0;
+		while (offset < frames && !closed) {
+			long position = written;
+			int space = (int) (RING_FRAMES - (position - read));
+			if (space == 0) {
+				LockSupport.parkNanos(PARK_NANOS);
+				continue;
+			}
+			int count = Math.min(space, frames - offset);
+			for (int i = 0; i < count; i++) {
+				int index = (int) ((position + i) & (RING_FRAMES - 1)) * 2;
+				ring[index] = converted[(offset + i) * 2];
+				ring[index + 1] = converted[(offset + i) * 2 + 1];
+			}
+			written = position + count; // publishes the samples to the mixer
+			offset += count;
+		}
+	}
+}
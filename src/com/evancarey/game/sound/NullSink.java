@@ -0,0 +1,21 @@
+package com.evancarey.game.sound;
+
+/**
+ * Throws the mixer's output away. Used when there is no audio output, and
+ * headless, where the mixing still runs but nothing is heard.
+ */
+public class NullSink implements AudioSink {
+	
+	@Override
+	public void write(byte[] data, int length) {
+	}
+	
+	@Override
+	public boolean isPaced() {
+		return false;
+	}
+	
+	@Override
+	public void close() {
+	}
+}
@@ -1,70 +1,194 @@
 package com.evancarey.game.sound;
 
-import java.applet.Applet;
-import java.applet.AudioClip;
-/** Class for playing the game's audio (still a work in progress) */
-public class Sound {
-
-	public static final Sound walk = new Sound("/sounds/walk.wav");
-	public static final Sound menuChange = new Sound("/sounds/menu-click.wav");
-	public static final Sound coinPickup = new Sound("/sounds/coin-collect.wav");
+import java.io.IOException;
+import java.io.InputStream;
 
-	private AudioClip clip;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
 
+/**
+ * Class for playing the game's audio.
+ * Each sound is decoded once, when loaded, into PCM samples in the mixer's
+ * format (see AudioMixer), so playing it costs nothing but a free voice.
+ * Sounds played during a tick are started together at its end (see
+ * SoundQueue), and each sound limits how often it can restart and how many
+ * copies of it can play at once.
+ */
+public class Sound {
+	
+	public static final Sound walk = new Sound("/sounds/walk.wav").setMinInterval(4).setMaxInstances(2);
+	public static final Sound menuChange = new Sound("/sounds/menu-click.wav").setMaxInstances(2);
+	public static final Sound coinPickup = new Sound("/sounds/coin-collect.wav").setMinInterval(2).setMaxInstances(3);
+	
+	private String name;
+	/** Interleaved stereo samples at AudioMixer.SAMPLE_RATE */
+	private short[] samples;
+	private int minInterval;
+	private int maxInstances;
+	
+	// SoundQueue state
+	/** Whether the sound is queued to start this tick */
+	boolean queued;
+	/** The first tick the sound may start again */
+	int nextTick;
+	
 	/**
 	 * Construct a new sound object from a sound file.
 	 * @param name The path of the sound file
 	 */
 	private Sound(String name) {
+		this.name = name;
+		samples = new short[0];
+		minInterval = 0;
+		maxInstances = AudioMixer.VOICES;
+		queued = false;
+		nextTick = 0;
 		try {
-			clip = Applet.newAudioClip(Sound.class.getResource(name));
+			samples = decode(name);
 		} catch (Throwable e) {
 			e.printStackTrace();
 		}
 	}
-
+	
 	/**
-	 * Play the sound.
+	 * Play the sound, starting it at the end of the tick.
 	 */
 	public void play() {
-		try {
-			new Thread() {
-				public void run() {
-					clip.play();
-				}
-			}.start();
-		} catch (Throwable e) {
-			e.printStackTrace();
-		}
+		SoundQueue.add(this);
 	}
-
+	
 	/**
 	 * Loop the sound.
 	 */
 	public void loop() {
-		try {
-			new Thread() {
-				public void run() {
-					clip.loop();
-				}
-			}.start();
-		} catch (Throwable e) {
-			e.printStackTrace();
-		}
+		AudioMixer.getMixer().play(this, true);
 	}
-
+	
 	/**
 	 * Stop playing the sound.
 	 */
 	public void stop() {
-		try {
-			new Thread() {
-				public void run() {
-					clip.stop();
-				}
-			}.start();
-		} catch (Throwable e) {
-			e.printStackTrace();
+		SoundQueue.cancel(this);
+		AudioMixer.getMixer().stop(this);
+	}
+	
+	/**
+	 * Set the fewest ticks between starts of the sound. Playing it again
+	 * sooner does nothing.
+	 * @param minInterval The minimum interval in ticks (0 for none, beyond
+	 *                    playing at most once a tick)
+	 * @return The sound
+	 */
+	public Sound setMinInterval(int minInterval) {
+		this.minInterval = minInterval;
+		return this;
+	}
+	
+	/**
+	 * Get the fewest ticks between starts of the sound.
+	 * @return The minimum interval in ticks
+	 */
+	public int getMinInterval() {
+		return minInterval;
+	}
+	
+	/**
+	 * Set how many copies of the sound may play at once. Starting one more
+	 * restarts the oldest copy instead.
+	 * @param maxInstances The maximum number of voices playing the sound (at least 1)
+	 * @return The sound
+	 */
+	public Sound setMaxInstances(int maxInstances) {
+		this.maxInstances = Math.max(maxInstances, 1);
+		return this;
+	}
+	
+	/**
+	 * Get how many copies of the sound may play at once.
+	 * @return The maximum number of voices playing the sound
+	 */
+	public int getMaxInstances() {
+		return maxInstances;
+	}
+	
+	/**
+	 * Get the path of the sound file.
+	 * @return The path
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Get the number of frames (stereo sample pairs) in the sound.
+	 * @return The length of the sound in frames
+	 */
+	public int getFrameCount() {
+		return samples.length / AudioMixer.CHANNELS;
+	}
+	
+	/**
+	 * Get the decoded samples.
+	 * @return The interleaved stereo samples
+	 */
+	short[] getSamples() {
+		return samples;
+	}
+	
+	/**
+	 * Decode a sound file into interleaved 16-bit stereo samples at the
+	 * mixer's sample rate. Mono sounds are copied to both channels, and
+	 * other sample rates are converted by linear interpolation.
+	 * @param name The path of the sound file
+	 * @return The samples
+	 * @throws IOException If the file cannot be read
+	 * @throws UnsupportedAudioFileException If the file's format is not supported
+	 */
+	private static short[] decode(String name) throws IOException, UnsupportedAudioFileException {
+		AudioFormat source;
+		int channels;
+		byte[] bytes;
+		try (AudioInputStream stream = AudioSystem.getAudioInputStream(Sound.class.getResource(name))) {
+			source = stream.getFormat();
+			channels = source.getChannels();
+			AudioFormat pcm = new AudioFormat(source.getSampleRate(), 16, channels, true, false);
+			try (InputStream in = AudioSystem.getAudioInputStream(pcm, stream)) {
+				bytes = in.readAllBytes();
+			}
+		}
+		
+		// to stereo shorts at the source rate
+		int sourceFrames = bytes.length / (2 * channels);
+		short[] stereo = new short[sourceFrames * 2];
+		for (int i = 0; i < sourceFrames; i++) {
+			int offset = i * 2 * channels;
+			short left = (short) ((bytes[offset] & 0xff) | (bytes[offset + 1] << 8));
+			short right = left;
+			if (channels > 1) {
+				right = (short) ((bytes[offset + 2] & 0xff) | (bytes[offset + 3] << 8));
+			}
+			stereo[i * 2] = left;
+			stereo[i * 2 + 1] = right;
+		}
+		
+		if ((int) source.getSampleRate() == AudioMixer.SAMPLE_RATE || sourceFrames < 2) {
+			return stereo;
+		}
+		double step = source.getSampleRate() / AudioMixer.SAMPLE_RATE;
+		int frames = (int) ((sourceFrames - 1) / step) + 1;
+		short[] resampled = new short[frames * 2];
+		for (int i = 0; i < frames; i++) {
+			double position = i * step;
+			int index = Math.min((int) position, sourceFrames - 2);
+			double t = position - index;
+			for (int c = 0; c < 2; c++) {
+				int a = stereo[index * 2 + c];
+				int b = stereo[(index + 1) * 2 + c];
+				resampled[i * 2 + c] = (short) Math.round(a + (b - a) * t);
+			}
 		}
+		return resampled;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package com.evancarey.game.sound;
+
+import com.evancarey.game.debug.SoundEvent;
+
+/**
+ * Collects the sounds played during a tick and hands them to the mixer in
+ * one batch at the end of the tick (see flush()). A sound played several
+ * times in a tick (a row of coins, a landing and a footstep) is only
+ * started once, and a sound played again before its minimum interval has
+ * passed is dropped (see Sound.setMinInterval()). Sounds may only be played
+ * from the game's update thread.
+ */
+public class SoundQueue {
+	
+	private static Sound[] pending = new Sound[16];
+	private static int count = 0;
+	/** The number of ticks flushed so far */
+	private static int tick = 0;
+	/** The number of requests dropped as duplicates or too soon after the last */
+	private static int dropped = 0;
+	
+	/**
+	 * Queue a sound to start at the end of the tick.
+	 * @param sound The sound to play
+	 */
+	static void add(Sound sound) {
+		if (sound.queued || tick < sound.nextTick) {
+			dropped++;
+			return;
+		}
+		if (count == pending.length) {
+			Sound[] grown = new Sound[pending.length * 2];
+			System.arraycopy(pending, 0, grown, 0, count);
+			pending = grown;
+		}
+		pending[count++] = sound;
+		sound.queued = true;
+		sound.nextTick = tick + sound.getMinInterval();
+	}
+	
+	/**
+	 * Remove a sound from the queue, if it is queued.
+	 * @param sound The sound to remove
+	 */
+	static void cancel(Sound sound) {
+		for (int i = 0; i < count; i++) {
+			if (pending[i] == sound) {
+				pending[i] = pending[--count];
+				pending[count] = null;
+				sound.queued = false;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Start the sounds queued this tick. Called once at the end of every tick.
+	 */
+	public static void flush() {
+		if (count > 0) {
+			AudioMixer.getMixer().playAll(pending, count);
+			for (int i = 0; i < count; i++) {
+				SoundEvent event = SoundEvent.start();
+				if (event != null && event.shouldCommit()) {
+					event.sound = pending[i].getName();
+					event.commit();
+				}
+				pending[i].queued = false;
+				pending[i] = null;
+			}
+			count = 0;
+		}
+		tick++;
+	}
+	
+	/**
+	 * Get how many requests to play a sound were dropped, as duplicates in
+	 * a tick or as coming too soon after the sound last started.
+	 * @return The number of dropped requests
+	 */
+	public static int getDroppedCount() {
+		return dropped;
+	}
+}
@@ -0,0 +1,83 @@
+package com.evancarey.game.sound;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes the mixer's output to a WAV file, so what the game played can be
+ * listened to or compared after a headless run. The header's sizes are
+ * filled in when the sink is closed.
+ */
+public class WavFileSink implements AudioSink {
+	
+	/** Size of the RIFF header written before the audio */
+	private static final int HEADER_BYTES = 44;
+	
+	private RandomAccessFile file;
+	private long dataBytes;
+	
+	/**
+	 * Create (or replace) a WAV file to write to.
+	 * @param path The path of the file
+	 * @throws IOException If the file cannot be written
+	 */
+	public WavFileSink(String path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		writeHeader();
+		dataBytes = 0;
+	}
+	
+	@Override
+	public void write(byte[] data, int length) {
+		try {
+			file.write(data, 0, length);
+			dataBytes += length;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	public boolean isPaced() {
+		return false;
+	}
+	
+	@Override
+	public void close() {
+		try {
+			file.seek(0);
+			writeHeader();
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Write the RIFF header for the audio written so far.
+	 * @throws IOException If the file cannot be written
+	 */
+	private void writeHeader() throws IOException {
+		file.writeBytes("RIFF");
+		writeIntLE((int) (HEADER_BYTES - 8 + dataBytes));
+		file.writeBytes("WAVEfmt ");
+		writeIntLE(16); // size of the format chunk
+		writeShortLE(1); // PCM
+		writeShortLE(AudioMixer.CHANNELS);
+		writeIntLE(AudioMixer.SAMPLE_RATE);
+		writeIntLE(AudioMixer.SAMPLE_RATE * AudioMixer.FRAME_BYTES); // bytes per second
+		writeShortLE(AudioMixer.FRAME_BYTES);
+		writeShortLE(16); // bits per sample
+		file.writeBytes("data");
+		writeIntLE((int) dataBytes);
+	}
+	
+	private void writeIntLE(int value) throws IOException {
+		file.writeInt(Integer.reverseBytes(value));
+	}
+	
+	private void writeShortLE(int value) throws IOException {
+		file.writeShort(Short.reverseBytes((short) value));
+	}
+}